@@ -0,0 +1,112 @@
+# -*- coding: utf-8 -*-
+
+# Builds a sprite pack that can be installed from the app home screen, see SpritePack.kt.
+# Usage: python build_sprite_pack.py [output] [sprite types...]
+# Sprite types are SpriteType names (D3ANIMATED, D2ANIMATED, D2, DEX), default is D2 and DEX.
+
+import re
+import sys
+import struct
+import requests
+from json import loads
+from common import *
+
+app_data_dir = "../psclient/src/main/res/raw"
+url_sprites = "https://play.pokemonshowdown.com/sprites/"
+
+# Same values as GlideHelper.SpriteType
+sprite_types = {
+    "D3ANIMATED": ("ani", "gif"),
+    "D2ANIMATED": ("gen5ani", "gif"),
+    "D2": ("gen5", "png"),
+    "DEX": ("dex", "png"),
+}
+
+MAGIC = 0x50535350 # "PSSP"
+FILE_VERSION = 1
+
+def to_id(text):
+    return re.sub(r'[^a-z0-9]', '', text.lower())
+
+# Mirrors BasePokemon.computeForme()
+def sprite_id(species):
+    id = to_id(species)
+    base_species = ""
+    forme = None
+    if id not in ["hooh", "hakamoo", "jangmoo", "kommoo", "porygonz"]:
+        if id == "kommoototem":
+            base_species = "Kommo-o"
+            forme = "Totem"
+        elif '-' in species:
+            base_species, forme = species.split('-', 1)
+    if id != "yanmega" and id.endswith("mega"):
+        base_species, forme = id[:-len("mega")], "mega"
+    elif id.endswith("primal"):
+        base_species, forme = id[:-len("primal")], "primal"
+    elif id.endswith("alola"):
+        base_species, forme = id[:-len("alola")], "alola"
+    if base_species == "":
+        base_species = species
+    sprite_id = to_id(base_species) + "-" + to_id(forme or "")
+    if sprite_id.endswith("totem"):
+        sprite_id = sprite_id[:-len("totem")]
+    return sprite_id.rstrip("-")
+
+# Same format as GlideHelper.SpriteType.key()
+def sprite_key(type_name, sprite_id, shiny, back):
+    return "{}:{}:{}:{}".format(type_name, sprite_id, 1 if shiny else 0, 1 if back else 0)
+
+def sprite_url(type_name, sprite_id, shiny, back):
+    path, ext = sprite_types[type_name]
+    if back:
+        path += "-back"
+    if shiny:
+        path += "-shiny"
+    return "{}{}/{}.{}".format(url_sprites, path, sprite_id, ext)
+
+# DataOutputStream.writeUTF() format, keys are ascii
+def utf(text):
+    data = text.encode("utf-8")
+    return struct.pack(">H", len(data)) + data
+
+output = sys.argv[1] if len(sys.argv) > 1 else "sprites.pack"
+types = sys.argv[2:] if len(sys.argv) > 2 else ["D2", "DEX"]
+
+log("Reading species from dex.json...")
+with open(app_data_dir + "/dex.json", encoding="utf-8") as f:
+    dex = loads(f.read())
+sprite_ids = sorted(set(sprite_id(entry["name"]) for entry in dex.values()))
+log("{} sprite ids".format(len(sprite_ids)))
+
+sprites = []
+session = requests.Session()
+set_log_p()
+for type_name in types:
+    # Dex sprites have no back variant
+    variants = [(False, False), (True, False)] if type_name == "DEX" else \
+            [(False, False), (True, False), (False, True), (True, True)]
+    for id in sprite_ids:
+        for shiny, back in variants:
+            log_p()
+            response = session.get(sprite_url(type_name, id, shiny, back))
+            if response.status_code != 200:
+                continue # Missing variants are fetched from the server by the app
+            sprites.append((sprite_key(type_name, id, shiny, back), response.content))
+log("\n{} sprites downloaded".format(len(sprites)))
+
+header = struct.pack(">iii", MAGIC, FILE_VERSION, len(sprites))
+index_size = sum(len(utf(key)) + 8 + 4 for key, _ in sprites)
+offset = len(header) + index_size
+index = b""
+for key, content in sprites:
+    index += utf(key) + struct.pack(">qi", offset, len(content))
+    offset += len(content)
+
+log("Writing " + output + "...")
+with open(output, "wb") as f:
+    f.write(header)
+    f.write(index)
+    for _, content in sprites:
+        f.write(content)
+
+finish()
@@ -0,0 +1,99 @@
+package com.majeur.psclienttest
+
+import android.graphics.Typeface
+import android.text.Spannable
+import android.text.style.StyleSpan
+import android.text.style.TypefaceSpan
+import android.text.style.URLSpan
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.majeur.psclient.util.ChatFormatter
+import com.majeur.psclient.util.SpannableStringBuilder
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Compares [ChatFormatter] with the multi pass formatting it replaced (specChars + applyStylingTags).
+ * Results are logged under the "ChatFormatterBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4::class)
+class ChatFormatterBenchmark {
+
+    private val messages = listOf(
+            "gg",
+            "hi everyone, anyone up for a **gen8ou** battle?",
+            "check this out https://www.smogon.com/dex/ss/pokemon/landorus-therian/ it's __really__ good",
+            "**bold** and __italic__ and ~~strike~~ with ```code``` then <<lobby>> and [[pikachu]]",
+            "no formatting at all but a pretty long message to see how plain text scales when nothing has to be done ".repeat(4)
+    )
+
+    @Test
+    fun benchmark_FormatChatMessages() {
+        // Warm up both paths
+        run(1000, ::formatLegacy)
+        run(1000, ::formatSinglePass)
+
+        val legacyNs = run(20000, ::formatLegacy)
+        val singlePassNs = run(20000, ::formatSinglePass)
+        Log.i(TAG, "legacy: ${legacyNs / 20000} ns/msg, single pass: ${singlePassNs / 20000} ns/msg")
+        assertTrue("Single pass formatting should not be slower than legacy formatting", singlePassNs < legacyNs)
+    }
+
+    private fun run(iterations: Int, format: (String) -> CharSequence): Long {
+        val start = System.nanoTime()
+        for (i in 0 until iterations) format(messages[i % messages.size])
+        return System.nanoTime() - start
+    }
+
+    private fun formatSinglePass(message: String): CharSequence {
+        val builder = android.text.SpannableStringBuilder("user: ")
+        ChatFormatter.append(builder, message)
+        return builder
+    }
+
+    private fun formatLegacy(message: String): CharSequence {
+        val builder = SpannableStringBuilder("user: ${message.replace("<<", "«").replace(">>", "»")}")
+        applyStylingTags(builder)
+        return builder
+    }
+
+    // Former Utils.applyStylingTags(), kept here as the benchmark baseline
+    private fun applyStylingTags(builder: SpannableStringBuilder) {
+        for (i in MD_TOKENS_OP.indices) {
+            val tokenOpen = MD_TOKENS_OP[i]
+            val tokenClose = MD_TOKENS_CL[i]
+            var closeIndex = -1
+            val urlToken = tokenOpen.contains("http")
+            while (true) {
+                val openIndex = builder.indexOf(tokenOpen, closeIndex + 1)
+                if (openIndex == -1) break
+                closeIndex = builder.indexOf(tokenClose, openIndex + 1)
+                if (closeIndex == -1 && !urlToken) break
+                val span: Any
+                if (!urlToken) {
+                    builder.delete(openIndex, openIndex + tokenOpen.length)
+                    closeIndex -= tokenOpen.length
+                    builder.delete(closeIndex, closeIndex + tokenClose.length)
+                    span = when (i) {
+                        0 -> StyleSpan(Typeface.BOLD)
+                        1 -> StyleSpan(Typeface.ITALIC)
+                        2 -> StyleSpan(Typeface.BOLD_ITALIC)
+                        3 -> TypefaceSpan("monospace")
+                        else -> URLSpan("")
+                    }
+                } else {
+                    if (closeIndex == -1 || closeIndex >= builder.length) closeIndex = builder.length
+                    span = URLSpan(builder.substring(openIndex, closeIndex))
+                }
+                builder.setSpan(span, openIndex, closeIndex, Spannable.SPAN_INCLUSIVE_EXCLUSIVE)
+            }
+        }
+    }
+
+    companion object {
+        private const val TAG = "ChatFormatterBenchmark"
+        private val MD_TOKENS_OP = arrayOf("**", "__", "~~", "```", "[[", "http", "https")
+        private val MD_TOKENS_CL = arrayOf("**", "__", "~~", "```", "]]", " ", " ")
+    }
+}
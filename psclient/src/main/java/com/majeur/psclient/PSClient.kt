@@ -1,17 +1,56 @@
 package com.majeur.psclient
 
 import android.app.Application
+import com.bumptech.glide.Glide
+import com.bumptech.glide.load.model.GlideUrl
+import com.majeur.psclient.io.GlideHelper
+import com.majeur.psclient.io.SpriteAvailability
+import com.majeur.psclient.io.SpritePack
+import com.majeur.psclient.service.HttpCachePolicy
+import com.majeur.psclient.util.Preferences
+import com.majeur.psclient.util.UsernameColors
+import com.majeur.psclient.util.glide.OkHttpUrlLoader
+import com.majeur.psclient.util.glide.SpriteDecoding
+import com.majeur.psclient.util.glide.SpritePackLoader
+import okhttp3.OkHttpClient
 import timber.log.Timber
 import timber.log.Timber.DebugTree
+import java.io.InputStream
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
 
 
 class PSClient : Application() {
 
+    // Single client for the whole app, every call shares its connection pool
+    val okHttpClient: OkHttpClient by lazy {
+        OkHttpClient.Builder()
+                .pingInterval(Preferences.getPingInterval(this).toLong(), TimeUnit.SECONDS)
+                .cache(HttpCachePolicy.cache(cacheDir))
+                .addInterceptor(HttpCachePolicy.offlineInterceptor)
+                .addNetworkInterceptor(HttpCachePolicy.networkInterceptor)
+                .build()
+    }
+
     override fun onCreate() {
         super.onCreate()
         if (BuildConfig.DEBUG) {
             Timber.plant(DebugTree())
         }
+        // Glide keeps its own disk cache, no need to store sprites twice
+        val glideClient = okHttpClient.newBuilder().cache(null).build()
+        val glide = Glide.get(this)
+        glide.registry
+                .replace(GlideUrl::class.java, InputStream::class.java, OkHttpUrlLoader.Factory(glideClient))
+                .append(GlideHelper.Sprite::class.java, InputStream::class.java, SpritePackLoader.Factory())
+        SpriteDecoding.register(glide, glide.registry)
+        thread(name = "username-colors-restore") {
+            UsernameColors.restore(cacheDir)
+        }
+        thread(name = "sprites-restore") {
+            SpritePack.restore(filesDir)
+            SpriteAvailability.restore(this)
+        }
     }
 
 }
\ No newline at end of file
@@ -15,16 +15,11 @@ import com.majeur.psclient.model.pokemon.DexPokemon
 import com.majeur.psclient.util.toId
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
-import timber.log.Timber
 import java.io.IOException
 import java.io.InputStreamReader
 
 class AssetLoader(val context: Context) {
 
-    private val allItemsLoader by lazy {
-        AllItemsLoader(context)
-    }
-
     private val allSpeciesLoader by lazy {
         AllSpeciesLoader(context)
     }
@@ -49,14 +44,6 @@ class AssetLoader(val context: Context) {
         MoveDetailsLoader(context)
     }
 
-    private val itemIconLoader by lazy {
-        ItemIconLoader(context)
-    }
-
-    suspend fun allItems(constraint: String) = withContext(Dispatchers.IO) {
-        allItemsLoader.load(constraint)
-    }
-
 //    Not used for now
 //    suspend fun allSpecies(constraint: String) = withContext(Dispatchers.IO) {
 //        allSpeciesLoader.load(constraint)
@@ -78,10 +65,18 @@ class AssetLoader(val context: Context) {
         dexPokemonLoader.load(species)
     }
 
+    suspend fun dexPokemons(speciesIds: Collection<String>) = withContext(Dispatchers.IO) {
+        dexPokemonLoader.loadAll(speciesIds)
+    }
+
     suspend fun item(itemId: String) = withContext(Dispatchers.IO) {
         itemLoader.load(itemId)
     }
 
+    suspend fun items(itemIds: Collection<String>) = withContext(Dispatchers.IO) {
+        itemLoader.loadAll(itemIds)
+    }
+
     suspend fun learnset(species: String) = withContext(Dispatchers.IO) {
         learnsetLoader.load(species)
     }
@@ -98,8 +93,20 @@ class AssetLoader(val context: Context) {
         }
     }
 
-    suspend fun itemIcon(spriteId: Int) = withContext(Dispatchers.IO) {
-        itemIconLoader.load(spriteId.toString())
+    suspend fun moves(moveIds: Collection<String>) = withContext(Dispatchers.IO) {
+        moveDetailsLoader.loadAll(moveIds)
+    }
+
+    suspend fun itemCatalog() = withContext(Dispatchers.IO) {
+        synchronized(catalogLock) {
+            itemCatalog ?: ItemCatalog.load(context.applicationContext).also { itemCatalog = it }
+        }
+    }
+
+    suspend fun moveCatalog() = withContext(Dispatchers.IO) {
+        synchronized(catalogLock) {
+            moveCatalog ?: MoveCatalog.load(context.applicationContext).also { moveCatalog = it }
+        }
     }
 
     fun dexIconNonSuspend(species: String) = dexIconLoader.load(species)
@@ -109,6 +116,58 @@ class AssetLoader(val context: Context) {
 
     fun allSpeciesNonSuspend(species: String) = allSpeciesLoader.load(species)
 
+    companion object {
+        // Catalogs are built once and shared by all loaders
+        private val catalogLock = Any()
+        private var itemCatalog: ItemCatalog? = null
+        private var moveCatalog: MoveCatalog? = null
+
+        fun jsonReader(context: Context, resId: Int) = JsonReader(InputStreamReader(context.resources.openRawResource(resId)))
+
+        @Throws(IOException::class)
+        fun parseItem(reader: JsonReader): Item {
+            return Item().apply {
+                reader.beginObject()
+                while (reader.hasNext()) {
+                    when (reader.nextName()) {
+                        "name" -> name = reader.nextString()
+                        "id" -> id = reader.nextString()
+                        "desc" -> description = reader.nextString()
+                        "spritenum" -> spriteId = reader.nextInt()
+                        else -> reader.skipValue()
+                    }
+                }
+                reader.endObject()
+            }
+        }
+
+        @Throws(IOException::class)
+        fun parseMoveDetails(reader: JsonReader): Move.Details {
+            return Move.Details().apply {
+                reader.beginObject()
+                while (reader.hasNext()) {
+                    when (reader.nextName()) {
+                        "accuracy" -> accuracy = if (reader.peek() == JsonToken.BOOLEAN) if (reader.nextBoolean()) -1 else 0 else reader.nextInt()
+                        "basePower" -> basePower = reader.nextInt()
+                        "category" -> category = reader.nextString()
+                        "desc" -> desc = reader.nextString()
+                        "shortDesc" -> reader.nextString().let { desc = desc ?: it }
+                        "type" -> type = reader.nextString()
+                        "priority" -> priority = reader.nextInt()
+                        "name" -> this.name = reader.nextString()
+                        "pp" -> pp = reader.nextInt()
+                        "zMovePower" -> zPower = reader.nextInt()
+                        "target" -> target = Move.Target.parse(reader.nextString())
+                        "zMoveEffect" -> zEffect = reader.nextString()
+                        "gmaxPower" -> maxPower = reader.nextInt()
+                        else -> reader.skipValue()
+                    }
+                }
+                reader.endObject()
+            }
+        }
+    }
+
     abstract class Loader<T>(
             protected val context: Context,
             private val useCache: Boolean = true,
@@ -120,6 +179,20 @@ class AssetLoader(val context: Context) {
 
         fun load(vararg assetIds: String) = assetIds.map { load(it) }
 
+        // Assets missing from cache are computed together, see computeAll(). Bulk lookups span whole
+        // libraries, their results are not cached so that they do not evict assets of the screens.
+        @Synchronized fun loadAll(assetIds: Collection<String>): Map<String, T?> {
+            val assets = HashMap<String, T?>(assetIds.size)
+            val missingIds = HashSet<String>()
+            assetIds.forEach { assetId ->
+                if (useCache && cache.containsKey(assetId)) assets[assetId] = cache[assetId]
+                else missingIds.add(assetId)
+            }
+            if (missingIds.isEmpty()) return assets
+            assets.putAll(computeAll(missingIds))
+            return assets
+        }
+
         // Synchronizing here may be a bit rough but I'll keep this here for now...
         @Synchronized fun load(assetId: String): T? {
             return if (useCache) cache.getOrPut(assetId) { compute(assetId) }
@@ -128,48 +201,27 @@ class AssetLoader(val context: Context) {
 
         protected abstract fun compute(assetId: String): T?
 
-        protected val resources: Resources = context.resources
-
-        protected fun jsonReader(resId: Int): JsonReader {
-                val inputStream = context.resources.openRawResource(resId)
-                return JsonReader(InputStreamReader(inputStream))
-            }
-    }
-
-    class AllItemsLoader(context: Context) : Loader<List<String>>(context, useCache = false) {
+        // Loaders reading assets from a single json object should override this to do it in one pass
+        protected open fun computeAll(assetIds: Set<String>): Map<String, T?> = assetIds.associateWith { compute(it) }
 
-        @Suppress("PARAMETER_NAME_CHANGED_ON_OVERRIDE")
-        @Throws(IOException::class)
-        override fun compute(constraint: String): List<String>? {
-            val itemNames = mutableListOf<String>()
-            jsonReader(R.raw.items).use { reader ->
+        // Reads the requested entries of a json object in a single pass, stops as soon as all of them are found
+        protected fun scanAll(resId: Int, assetIds: Set<String>, parse: (JsonReader) -> T?): Map<String, T?> {
+            val assets = HashMap<String, T?>(assetIds.size)
+            jsonReader(resId).use { reader ->
                 reader.beginObject()
-                while (reader.hasNext()) {
-                    val itemId = reader.nextName()
-                    if (itemId.contains(constraint)) {
-                        itemNames.add(parseItemName(reader, itemId))
-                    } else {
-                        reader.skipValue()
-                    }
+                while (reader.hasNext() && assets.size < assetIds.size) {
+                    val assetId = reader.nextName()
+                    if (assetId in assetIds) assets[assetId] = parse(reader)
+                    else reader.skipValue()
                 }
-                reader.endObject()
             }
-            return itemNames
+            assetIds.forEach { if (!assets.containsKey(it)) assets[it] = null }
+            return assets
         }
 
-        @Throws(IOException::class)
-        private fun parseItemName(reader: JsonReader, itemId: String): String {
-            var name = itemId
-            reader.beginObject()
-            while (reader.hasNext()) {
-                when (reader.nextName()) {
-                    "name" -> name = reader.nextString()
-                    else -> reader.skipValue()
-                }
-            }
-            reader.endObject()
-            return name
-        }
+        protected val resources: Resources = context.resources
+
+        protected fun jsonReader(resId: Int) = jsonReader(context, resId)
     }
 
     class AllSpeciesLoader(context: Context) : Loader<List<String>>(context, useCache = false) {
@@ -278,6 +330,8 @@ class AssetLoader(val context: Context) {
             }
         }
 
+        override fun computeAll(assetIds: Set<String>) = scanAll(R.raw.dex, assetIds) { parseDexPokemon(it) }
+
         @Throws(IOException::class)
         private fun parseDexPokemon(reader: JsonReader): DexPokemon {
             return DexPokemon().apply {
@@ -366,22 +420,7 @@ class AssetLoader(val context: Context) {
             }
         }
 
-        @Throws(IOException::class)
-        private fun parseItem(reader: JsonReader): Item {
-            return Item().apply {
-                reader.beginObject()
-                while (reader.hasNext()) {
-                    when (reader.nextName()) {
-                        "name" -> name = reader.nextString()
-                        "id" -> id = reader.nextString()
-                        "desc" -> description = reader.nextString()
-                        "spritenum" -> spriteId = reader.nextInt()
-                        else -> reader.skipValue()
-                    }
-                }
-                reader.endObject()
-            }
-        }
+        override fun computeAll(assetIds: Set<String>) = scanAll(R.raw.items, assetIds) { parseItem(it) }
     }
 
     class LearnsetLoader(context: Context) : Loader<List<String>>(context) {
@@ -473,67 +512,6 @@ class AssetLoader(val context: Context) {
             }
         }
 
-        @Throws(IOException::class)
-        private fun parseMoveDetails(reader: JsonReader): Move.Details? {
-            return Move.Details().apply {
-                reader.beginObject()
-                while (reader.hasNext()) {
-                    when (reader.nextName()) {
-                        "accuracy" -> accuracy = if (reader.peek() == JsonToken.BOOLEAN) if (reader.nextBoolean()) -1 else 0 else reader.nextInt()
-                        "basePower" -> basePower = reader.nextInt()
-                        "category" -> category = reader.nextString()
-                        "desc" -> desc = reader.nextString()
-                        "shortDesc" -> reader.nextString().let { desc = desc ?: it }
-                        "type" -> type = reader.nextString()
-                        "priority" -> priority = reader.nextInt()
-                        "name" -> this.name = reader.nextString()
-                        "pp" -> pp = reader.nextInt()
-                        "zMovePower" -> zPower = reader.nextInt()
-                        "target" -> target = Move.Target.parse(reader.nextString())
-                        "zMoveEffect" -> zEffect = reader.nextString()
-                        "gmaxPower" -> maxPower = reader.nextInt()
-                        else -> reader.skipValue()
-                    }
-                }
-                reader.endObject()
-            }
-        }
-    }
-
-    class ItemIconLoader(context: Context) : Loader<Bitmap>(context, maxCache = 16) {
-
-        companion object {
-            private const val SHEET_WIDTH = 384
-            private const val ELEMENT_WIDTH = 24
-            private const val ELEMENT_HEIGHT = 24
-        }
-
-        private val tempRect = Rect()
-
-        private val bitmapDecoder: BitmapRegionDecoder
-            get() {
-                val inputStream = resources.openRawResource(R.raw.item_icons_sheet)
-                return BitmapRegionDecoder.newInstance(inputStream, true)
-            }
-
-        @Throws(IOException::class)
-        override fun compute(assetId: String): Bitmap? {
-            val index = assetId.toIntOrNull() ?: 0
-            val xDim = SHEET_WIDTH / ELEMENT_WIDTH
-            val x = index % xDim
-            val y = index / xDim
-            tempRect.apply {
-                left = x * ELEMENT_WIDTH
-                top = y * ELEMENT_HEIGHT
-                right = (x + 1) * ELEMENT_WIDTH
-                bottom = (y + 1) * ELEMENT_HEIGHT
-            }
-            Timber.d("index:$assetId -> left:${tempRect.left} top:${tempRect.top}")
-            return bitmapDecoder.run {
-                val bitmap = decodeRegion(tempRect, null)
-                recycle()
-                bitmap
-            }
-        }
+        override fun computeAll(assetIds: Set<String>) = scanAll(R.raw.moves, assetIds) { parseMoveDetails(it) }
     }
-}
\ No newline at end of file
+}
@@ -9,6 +9,7 @@ import com.majeur.psclient.R;
 import com.majeur.psclient.model.battle.Player;
 import com.majeur.psclient.model.battle.PokemonId;
 import com.majeur.psclient.model.pokemon.BattlingPokemon;
+import com.majeur.psclient.util.ChatFormatter;
 import com.majeur.psclient.util.Utils;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -21,7 +22,6 @@ import java.util.regex.Pattern;
 import static android.text.TextUtils.isEmpty;
 import static com.majeur.psclient.util.Utils.contains;
 import static com.majeur.psclient.util.Utils.firstCharUpperCase;
-import static com.majeur.psclient.util.Utils.parseBoldTags;
 
 
 /**
@@ -161,7 +161,8 @@ public final class BattleTextBuilder {
 
     private CharSequence line(String lineContent) {
         if (lineContent == null || lineContent.trim().equals("null")) return null;
-        return parseBoldTags(firstCharUpperCase(lineContent.trim()));
+        String line = firstCharUpperCase(lineContent.trim());
+        return line.contains("**") ? ChatFormatter.format(line, ChatFormatter.BOLD) : line;
     }
 
     private CharSequence lines(CharSequence line1, CharSequence line2) {
@@ -0,0 +1,119 @@
+package com.majeur.psclient.io
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.Rect
+import com.majeur.psclient.R
+import java.io.IOException
+
+/**
+ * Every item of items.json as display rows, read in a single pass. Rows are addressed by index
+ * so that lists can bind them with plain array lookups.
+ */
+class ItemCatalog private constructor(
+        val ids: Array<String>,
+        val names: Array<String>,
+        val descriptions: Array<String?>,
+        private val spriteIds: IntArray,
+        // Icons are drawn straight from the shared sheet, see iconRect()
+        val iconSheet: Bitmap) {
+
+    private val indexes = HashMap<String, Int>(ids.size * 2).apply { ids.forEachIndexed { i, id -> put(id, i) } }
+
+    val size get() = ids.size
+
+    fun indexOf(itemId: String) = indexes[itemId] ?: -1
+
+    fun iconRect(index: Int, rect: Rect): Rect {
+        val xDim = SHEET_WIDTH / ICON_SIZE
+        val x = spriteIds[index] % xDim
+        val y = spriteIds[index] / xDim
+        rect.set(x * ICON_SIZE, y * ICON_SIZE, (x + 1) * ICON_SIZE, (y + 1) * ICON_SIZE)
+        return rect
+    }
+
+    companion object {
+        private const val SHEET_WIDTH = 384
+        private const val ICON_SIZE = 24
+
+        @Throws(IOException::class)
+        fun load(context: Context): ItemCatalog {
+            val ids = ArrayList<String>(600)
+            val names = ArrayList<String>(600)
+            val descriptions = ArrayList<String?>(600)
+            val spriteIds = ArrayList<Int>(600)
+            AssetLoader.jsonReader(context, R.raw.items).use { reader ->
+                reader.beginObject()
+                while (reader.hasNext()) {
+                    val id = reader.nextName()
+                    val item = AssetLoader.parseItem(reader)
+                    ids.add(id)
+                    names.add(item.name)
+                    descriptions.add(item.description)
+                    spriteIds.add(item.spriteId)
+                }
+                reader.endObject()
+            }
+            val iconSheet = context.resources.openRawResource(R.raw.item_icons_sheet).use {
+                BitmapFactory.decodeStream(it)
+            } ?: throw IOException("Could not decode item icons sheet")
+            return ItemCatalog(ids.toTypedArray(), names.toTypedArray(), descriptions.toTypedArray(),
+                    spriteIds.toIntArray(), iconSheet)
+        }
+    }
+}
+
+/**
+ * Every move of moves.json as display rows, read in a single pass and addressed by index.
+ * Accuracy is -1 for moves that cannot miss.
+ */
+class MoveCatalog private constructor(
+        val ids: Array<String>,
+        val names: Array<String>,
+        val types: Array<String?>,
+        val categories: Array<String?>,
+        val basePowers: IntArray,
+        val accuracies: IntArray,
+        val pps: IntArray,
+        val descriptions: Array<String?>) {
+
+    private val indexes = HashMap<String, Int>(ids.size * 2).apply { ids.forEachIndexed { i, id -> put(id, i) } }
+
+    val size get() = ids.size
+
+    fun indexOf(moveId: String) = indexes[moveId] ?: -1
+
+    companion object {
+
+        @Throws(IOException::class)
+        fun load(context: Context): MoveCatalog {
+            val ids = ArrayList<String>(900)
+            val names = ArrayList<String>(900)
+            val types = ArrayList<String?>(900)
+            val categories = ArrayList<String?>(900)
+            val basePowers = ArrayList<Int>(900)
+            val accuracies = ArrayList<Int>(900)
+            val pps = ArrayList<Int>(900)
+            val descriptions = ArrayList<String?>(900)
+            AssetLoader.jsonReader(context, R.raw.moves).use { reader ->
+                reader.beginObject()
+                while (reader.hasNext()) {
+                    val id = reader.nextName()
+                    val details = AssetLoader.parseMoveDetails(reader)
+                    ids.add(id)
+                    names.add(details.name)
+                    types.add(details.type)
+                    categories.add(details.category)
+                    basePowers.add(details.basePower)
+                    accuracies.add(details.accuracy)
+                    pps.add(details.pp)
+                    descriptions.add(details.desc)
+                }
+                reader.endObject()
+            }
+            return MoveCatalog(ids.toTypedArray(), names.toTypedArray(), types.toTypedArray(), categories.toTypedArray(),
+                    basePowers.toIntArray(), accuracies.toIntArray(), pps.toIntArray(), descriptions.toTypedArray())
+        }
+    }
+}
@@ -10,6 +10,10 @@ import android.view.animation.DecelerateInterpolator
 import android.widget.ImageView
 import com.bumptech.glide.Glide
 import com.bumptech.glide.RequestBuilder
+import com.bumptech.glide.load.DataSource
+import com.bumptech.glide.load.HttpException
+import com.bumptech.glide.load.engine.GlideException
+import com.bumptech.glide.request.RequestListener
 import com.bumptech.glide.request.RequestOptions
 import com.bumptech.glide.request.target.Target
 import com.majeur.psclient.R
@@ -18,8 +22,8 @@ import com.majeur.psclient.model.pokemon.BasePokemon
 import com.majeur.psclient.model.pokemon.BattlingPokemon
 import com.majeur.psclient.util.Utils
 import com.majeur.psclient.util.glide.AnimatedImageViewTarget
+import com.majeur.psclient.util.glide.SpriteDecoding
 import com.majeur.psclient.util.html.Html
-import com.majeur.psclient.util.minusFirst
 import com.majeur.psclient.widget.BattleLayout
 import timber.log.Timber
 import java.util.concurrent.ExecutionException
@@ -46,6 +50,16 @@ class GlideHelper(context: Context) {
             appendPath("$spriteId.$ext")
             build()
         }
+
+        // Identifies a sprite in SpriteAvailability and SpritePack
+        fun key(spriteId: String, shiny: Boolean, back: Boolean) =
+                "$name:$spriteId:${if (shiny) 1 else 0}:${if (back) 1 else 0}"
+    }
+
+    // Glide model of a sprite, served from the sprite pack when it holds it, see SpritePackLoader
+    data class Sprite(val type: SpriteType, val spriteId: String, val shiny: Boolean, val back: Boolean) {
+        val uri get() = type.uri(spriteId, shiny, back)
+        val key get() = type.key(spriteId, shiny, back)
     }
 
     companion object {
@@ -56,7 +70,8 @@ class GlideHelper(context: Context) {
 
     fun loadBattleSprite(pokemon: BattlingPokemon, imageView: ImageView) {
         val spriteId = pokemon.transformSpecies ?: pokemon.spriteId
-        loadSprite(spriteId, pokemon.trainer, pokemon.shiny, true,
+        val sampleSize = SpriteDecoding.sampleSizeFor(battleSpriteScale(imageView, pokemon.foe))
+        loadSprite(spriteId, pokemon.trainer, pokemon.shiny, true, sampleSize,
                 SpriteType.D3ANIMATED, SpriteType.D2ANIMATED, SpriteType.D2)
             .into(object : AnimatedImageViewTarget(imageView) {
 
@@ -78,10 +93,8 @@ class GlideHelper(context: Context) {
                         .alpha(1f)
             }
 
-                override fun onApplyResourceSize(w: Int, h: Int) {
-                val fieldWidth = (imageView.parent as BattleLayout).width
-                var scale = fieldWidth * MAGIC_SCALE
-                if (!pokemon.foe) scale *= 1.5f
+            override fun onApplyResourceSize(w: Int, h: Int) {
+                val scale = battleSpriteScale(imageView, pokemon.foe) * sampleSize
                 getView().layoutParams.apply {
                     width = (w * scale).roundToInt()
                     height = (h * scale).roundToInt()
@@ -91,15 +104,15 @@ class GlideHelper(context: Context) {
     }
 
     fun loadPreviewSprite(player: Player, pokemon: BasePokemon, imageView: ImageView) {
-        loadSprite(pokemon.spriteId, player == Player.TRAINER, false, true,
+        val sampleSize = SpriteDecoding.sampleSizeFor(previewSpriteScale(imageView))
+        loadSprite(pokemon.spriteId, player == Player.TRAINER, false, true, sampleSize,
                 SpriteType.D3ANIMATED, SpriteType.D2ANIMATED, SpriteType.D2)
             .into(object : AnimatedImageViewTarget(imageView) {
                 override fun onInitInAnimation(viewPropertyAnimator: ViewPropertyAnimator) = Unit
                 override fun onInitOutAnimation(viewPropertyAnimator: ViewPropertyAnimator) = Unit
 
                 override fun onApplyResourceSize(w: Int, h: Int) {
-                    val fieldWidth = (imageView.parent as BattleLayout?)?.width ?: 0
-                    val scale = fieldWidth * MAGIC_SCALE
+                    val scale = previewSpriteScale(imageView) * sampleSize
                     imageView.layoutParams.apply {
                         width = (w * scale).roundToInt()
                         height = (h * scale).roundToInt()
@@ -111,30 +124,79 @@ class GlideHelper(context: Context) {
             }
     }
 
+    // Warms memory and disk caches with the front and back battle sprites, clear the targets to cancel
+    fun prefetchBattleSprites(spriteId: String, shiny: Boolean): List<Target<Drawable>> = listOf(false, true).map { back ->
+        loadSprite(spriteId, back, shiny, true, 1, SpriteType.D3ANIMATED, SpriteType.D2ANIMATED, SpriteType.D2)
+                .preload()
+    }
+
+    fun clear(target: Target<*>) = glide.clear(target)
+
     fun loadDexSprite(pokemon: BasePokemon, shiny: Boolean, imageView: ImageView) {
-        loadSprite(pokemon.spriteId, false, shiny, true, SpriteType.DEX, SpriteType.D2)
+        loadSprite(pokemon.spriteId, false, shiny, true, 1, SpriteType.DEX, SpriteType.D2)
                 .into(imageView)
     }
 
     fun loadAvatar(avatar: String, imageView: ImageView) {
-        loadSprite(avatar, false, false, false, SpriteType.TRAINER)
+        loadSprite(avatar, false, false, false, 1, SpriteType.TRAINER)
                 .into(imageView)
     }
 
-    // Load sprite trying with each sprite type if previous has failed
-    private fun loadSprite(spriteId: String, back: Boolean, shiny: Boolean,
-                           overrideSize: Boolean, vararg spriteTypes: SpriteType): RequestBuilder<Drawable> {
+    // Sprites are drawn scaled from their source size depending on the field width
+    private fun battleSpriteScale(imageView: ImageView, foe: Boolean): Float {
+        val fieldWidth = (imageView.parent as BattleLayout?)?.width ?: 0
+        return fieldWidth * MAGIC_SCALE * if (foe) 1f else 1.5f
+    }
+
+    private fun previewSpriteScale(imageView: ImageView): Float {
+        val fieldWidth = (imageView.parent as BattleLayout?)?.width ?: 0
+        return fieldWidth * MAGIC_SCALE
+    }
+
+    // Load sprite trying with each sprite type if previous has failed, skipping types known to be missing
+    private fun loadSprite(spriteId: String, back: Boolean, shiny: Boolean, overrideSize: Boolean,
+                           sampleSize: Int, vararg spriteTypes: SpriteType): RequestBuilder<Drawable> {
+        val types = spriteTypes.filterIndexed { i, type ->
+            i == spriteTypes.lastIndex || !SpriteAvailability.isMissing(type, spriteId, shiny, back)
+                    || SpritePack.current?.contains(type.key(spriteId, shiny, back)) == true
+        }
+        return loadSprite(spriteId, back, shiny, overrideSize, sampleSize, types, 0)
+    }
+
+    private fun loadSprite(spriteId: String, back: Boolean, shiny: Boolean, overrideSize: Boolean,
+                           sampleSize: Int, spriteTypes: List<SpriteType>, index: Int): RequestBuilder<Drawable> {
+        val spriteType = spriteTypes[index]
+        val isLast = index == spriteTypes.lastIndex
         val options = RequestOptions().apply {
             if (overrideSize) override(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL)
-            if (spriteTypes.size == 1) error(R.drawable.missingno) // No more sprite types, default fallback
+            if (sampleSize > 1) { // Decode smaller than the source, see SpriteDecoding
+                set(SpriteDecoding.SAMPLE_SIZE, sampleSize)
+                downsample(SpriteDecoding.downsampleStrategy(sampleSize))
+            }
+            if (isLast) error(R.drawable.missingno) // No more sprite types, default fallback
         }
-        return glide.load(spriteTypes.first().uri(spriteId, shiny, back)).apply {
+        return glide.load(Sprite(spriteType, spriteId, shiny, back)).apply {
             apply(options)
-            if (spriteTypes.size > 1) // There is more sprite types, add an error fallback
-                error(loadSprite(spriteId, back, shiny, overrideSize, *spriteTypes.minusFirst()))
+            listener(MissingSpriteListener(spriteType, spriteId, shiny, back))
+            if (!isLast) // There is more sprite types, add an error fallback
+                error(loadSprite(spriteId, back, shiny, overrideSize, sampleSize, spriteTypes, index + 1))
         }
     }
 
+    private class MissingSpriteListener(private val spriteType: SpriteType, private val spriteId: String,
+                                        private val shiny: Boolean, private val back: Boolean) : RequestListener<Drawable> {
+
+        override fun onLoadFailed(e: GlideException?, model: Any?, target: Target<Drawable>?, isFirstResource: Boolean): Boolean {
+            // Only a 404 tells us the sprite does not exist, other failures may be transient
+            val notFound = e?.rootCauses?.any { it is HttpException && it.statusCode == 404 } ?: false
+            if (notFound) SpriteAvailability.markMissing(spriteType, spriteId, shiny, back)
+            return false
+        }
+
+        override fun onResourceReady(resource: Drawable?, model: Any?, target: Target<Drawable>?,
+                                     dataSource: DataSource?, isFirstResource: Boolean) = false
+    }
+
     fun getHtmlImageGetter(iconLoader: AssetLoader, maxWidth: Int): Html.ImageGetter {
         val mw = maxWidth - Utils.dpToPx(2f)
         return Html.ImageGetter { source, reqw, reqh ->
@@ -0,0 +1,102 @@
+package com.majeur.psclient.io
+
+import android.content.Context
+import com.majeur.psclient.io.GlideHelper.SpriteType
+import timber.log.Timber
+import java.io.*
+import java.util.concurrent.Executors
+
+/**
+ * Remembers which sprite variants don't exist on the server, so the fallback chain of
+ * [GlideHelper] can go straight to the first variant worth trying instead of paying a failed
+ * round trip every time.
+ * Misses are appended to a journal as they are found. They can also be pre-seeded at build time
+ * with an optional raw resource named "sprite_misses" using the same line format, these never expire.
+ * Expired misses are only skipped when read, the journal is rewritten without them on restore once
+ * they make up most of it.
+ */
+object SpriteAvailability {
+
+    private const val FILE_NAME = "sprite_misses"
+    private const val TMP_FILE_NAME = "sprite_misses.tmp"
+    private const val MANIFEST_RES_NAME = "sprite_misses"
+    // Server gets new sprites from time to time
+    private const val MISS_LIFETIME = 30L * 24 * 60 * 60 * 1000
+
+    private val misses = HashSet<String>()
+    private val writeExecutor = Executors.newSingleThreadExecutor()
+    private var journal: File? = null
+
+    @Synchronized fun isMissing(type: SpriteType, spriteId: String, shiny: Boolean, back: Boolean) =
+            misses.contains(type.key(spriteId, shiny, back))
+
+    fun markMissing(type: SpriteType, spriteId: String, shiny: Boolean, back: Boolean) {
+        val key = type.key(spriteId, shiny, back)
+        val file = synchronized(this) {
+            if (!misses.add(key)) return
+            journal
+        } ?: return
+        val line = "$key\t${System.currentTimeMillis()}\n"
+        writeExecutor.execute {
+            try {
+                FileWriter(file, true).use { it.write(line) }
+            } catch (e: IOException) {
+                Timber.w(e, "Could not record sprite miss.")
+            }
+        }
+    }
+
+    // Should be called off the main thread
+    fun restore(context: Context) {
+        val restored = HashSet<String>()
+        val resId = context.resources.getIdentifier(MANIFEST_RES_NAME, "raw", context.packageName)
+        if (resId != 0) context.resources.openRawResource(resId).use { readLines(it, restored, null, expire = false) }
+
+        val file = File(context.cacheDir, FILE_NAME)
+        if (file.exists()) {
+            try {
+                // Latest live line of each miss, by key
+                val liveLines = LinkedHashMap<String, String>()
+                val lineCount = FileInputStream(file).use { readLines(it, restored, liveLines, expire = true) }
+                if (lineCount > 2 * liveLines.size) compact(File(context.cacheDir, TMP_FILE_NAME), file, liveLines.values)
+            } catch (e: IOException) {
+                Timber.w(e, "Could not restore sprite misses.")
+            }
+        }
+        // Journal is only appended to from now on, never while it is being compacted
+        synchronized(this) {
+            misses.addAll(restored)
+            journal = file
+        }
+    }
+
+    // Returns the number of lines read
+    private fun readLines(input: InputStream, out: MutableSet<String>, liveLines: MutableMap<String, String>?,
+                          expire: Boolean): Int {
+        val now = System.currentTimeMillis()
+        var count = 0
+        input.bufferedReader().forEachLine { line ->
+            count++
+            val tab = line.indexOf('\t')
+            val key = if (tab < 0) line else line.substring(0, tab)
+            if (key.isBlank()) return@forEachLine
+            val time = if (tab < 0) 0L else line.substring(tab + 1).toLongOrNull() ?: 0L
+            if (!expire || now - time < MISS_LIFETIME) {
+                out.add(key)
+                liveLines?.put(key, line)
+            }
+        }
+        return count
+    }
+
+    // Writes live misses to a temporary file that then replaces the journal
+    @Throws(IOException::class)
+    private fun compact(tmpFile: File, file: File, lines: Collection<String>) {
+        try {
+            FileWriter(tmpFile).use { writer -> lines.forEach { writer.write(it); writer.write("\n") } }
+            if (!tmpFile.renameTo(file)) throw IOException("Could not replace sprite misses journal")
+        } finally {
+            tmpFile.delete()
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.majeur.psclient.io
+
+import timber.log.Timber
+import java.io.*
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Single file archive of sprites, sideloaded from the home screen, that lets sprites be served
+ * without any network call. Sprites missing from the pack are still fetched from the server.
+ * Packs are built with build-tools/build_sprite_pack.py.
+ *
+ * Format: magic, version, entry count, then one (key, offset, length) index entry per sprite, all
+ * written with [DataOutputStream]. Offsets are absolute and point to the raw image files, stored
+ * after the index. Keys are built by [GlideHelper.SpriteType.key].
+ */
+class SpritePack private constructor(private val channel: FileChannel, private val index: Map<String, Entry>) {
+
+    private class Entry(val offset: Long, val length: Int)
+
+    val size get() = index.size
+
+    operator fun contains(key: String) = index.containsKey(key)
+
+    // Positional reads, safe to call from several Glide threads at once
+    fun read(key: String): ByteArray? {
+        val entry = index[key] ?: return null
+        val buffer = ByteBuffer.allocate(entry.length)
+        var position = entry.offset
+        while (buffer.hasRemaining()) {
+            val read = channel.read(buffer, position)
+            if (read < 0) throw EOFException("Truncated sprite pack entry: $key")
+            position += read
+        }
+        return buffer.array()
+    }
+
+    fun close() = channel.close()
+
+    companion object {
+
+        const val FILE_NAME = "sprites.pack"
+        private const val MAGIC = 0x50535350 // "PSSP"
+        private const val FILE_VERSION = 1
+
+        @Volatile var current: SpritePack? = null
+            private set
+
+        @Throws(IOException::class)
+        fun open(file: File): SpritePack {
+            val index = HashMap<String, Entry>()
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                if (input.readInt() != MAGIC) throw IOException("Not a sprite pack")
+                if (input.readInt() != FILE_VERSION) throw IOException("Unsupported sprite pack version")
+                repeat(input.readInt()) {
+                    val key = input.readUTF()
+                    index[key] = Entry(input.readLong(), input.readInt())
+                }
+            }
+            val length = file.length()
+            if (index.values.any { it.offset < 0 || it.length < 0 || it.offset + it.length > length })
+                throw IOException("Sprite pack index is out of bounds")
+            return SpritePack(RandomAccessFile(file, "r").channel, index)
+        }
+
+        // Should be called off the main thread
+        @Synchronized fun restore(filesDir: File) {
+            if (current != null) return
+            val file = File(filesDir, FILE_NAME)
+            if (!file.exists()) return
+            try {
+                current = open(file)
+            } catch (e: IOException) {
+                Timber.w(e, "Could not open sprite pack, ignoring it.")
+            }
+        }
+
+        // Copies a sideloaded pack in place, the previous pack is kept if the new one is invalid
+        @Synchronized @Throws(IOException::class)
+        fun install(filesDir: File, input: InputStream) {
+            val file = File(filesDir, FILE_NAME)
+            val tmpFile = File(filesDir, "$FILE_NAME.tmp")
+            try {
+                FileOutputStream(tmpFile).use { input.copyTo(it) }
+                open(tmpFile).close()
+                current?.close()
+                current = null
+                if (!tmpFile.renameTo(file)) throw IOException("Could not move sprite pack in place")
+                current = open(file)
+            } finally {
+                tmpFile.delete()
+            }
+        }
+
+        @Synchronized fun uninstall(filesDir: File) {
+            current?.close()
+            current = null
+            File(filesDir, FILE_NAME).delete()
+        }
+    }
+}
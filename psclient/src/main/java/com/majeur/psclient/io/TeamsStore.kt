@@ -3,91 +3,265 @@ package com.majeur.psclient.io
 import android.content.Context
 import com.majeur.psclient.model.common.Team
 import com.majeur.psclient.util.toId
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.withContext
+import kotlinx.coroutines.*
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import org.json.JSONArray
 import org.json.JSONException
-import org.json.JSONObject
 import timber.log.Timber
-import java.io.File
-import java.io.FileNotFoundException
-import java.io.IOException
+import java.io.*
+import java.util.zip.CRC32
 
+/**
+ * Persists user teams in an append-only journal, one record per edited or removed team, so that
+ * an edit only costs the size of that team. The journal is compacted by writing live records to a
+ * temporary file and renaming it once dead records outweigh live ones.
+ * Records are checksummed, a record torn by a kill mid-write is ignored and dropped at the next
+ * compaction, leaving the rest of the library untouched.
+ * Writes are queued when they are called and applied one at a time in that order, so that quick
+ * successive edits of a team are journaled in the order they were made.
+ */
 class TeamsStore(context: Context) {
 
-    private val jsonFile = File(context.filesDir, FILE_NAME)
+    private val journalFile = File(context.filesDir, FILE_NAME)
+    private val tmpFile = File(context.filesDir, "$FILE_NAME.tmp")
+    private val legacyJsonFile = File(context.filesDir, LEGACY_FILE_NAME)
 
-    suspend fun get(): List<Team.Group> = withContext(Dispatchers.IO) {
-        try {
-            getInternal()
-        } catch (e: Exception) {
-            if (e is JSONException) Timber.e(e)
-            emptyList<Team.Group>()
+    // Record keys of the teams we know of, by Team.uniqueId which is only stable for this process
+    private val keys = HashMap<Int, Long>()
+    // Live records by key, as written in the journal
+    private val records = LinkedHashMap<Long, String>()
+    private var nextKey = 1L
+    private var journalRecordCount = 0
+    private val mutex = Mutex()
+
+    private class Write(val apply: () -> Boolean, val result: CompletableDeferred<Boolean>)
+
+    private val writes = Channel<Write>(Channel.UNLIMITED)
+
+    init {
+        // Not bound to any ui, queued writes are completed even if their caller goes away
+        CoroutineScope(Dispatchers.IO).launch {
+            for (write in writes) write.result.complete(mutex.withLock { write.apply() })
         }
     }
 
-    @Throws(IOException::class, JSONException::class)
-    private fun getInternal(): List<Team.Group> {
-        return readJsonFromFile().run {
-            val groups = mutableListOf<Team.Group>()
-            (0 until length()).map { getJSONObject(it) }.forEach { groupJson ->
-                val format = groupJson.getString(JSON_KEY_FORMAT)
-                val group = Team.Group(format)
-                val teamsJson = groupJson.getJSONArray(JSON_KEY_TEAMS)
-                (0 until teamsJson.length()).map { teamsJson.getJSONObject(it) }.forEach {
-                    val label = it.optString(JSON_KEY_TEAM_LABEL)
-                    val data = it.getString(JSON_KEY_TEAM_DATA)
-                    Team.unpack(label, format, data)?.let { team -> group.teams.add(team) }
+    /**
+     * Hands out stored teams on the main thread by chunks of [LOAD_CHUNK_SIZE], in storage order.
+     * A later record can remove a team, so the journal lines are replayed before the first chunk
+     * goes out. Teams are then built and handed out chunk by chunk, kept packed, see
+     * [Team.packed], so that lists can show them right away.
+     */
+    suspend fun load(onTeamsLoaded: (List<Team>) -> Unit) = withContext(Dispatchers.IO) {
+        mutex.withLock {
+            try {
+                loadInternal { chunk -> withContext(Dispatchers.Main) { onTeamsLoaded(chunk) } }
+            } catch (e: IOException) {
+                Timber.e(e)
+            }
+        }
+    }
+
+    // Replays the journal line by line, only keeping the latest record of each team. Teams handed
+    // out by a previous load may still be edited, they keep their keys as long as their record lives.
+    @Throws(IOException::class)
+    private suspend fun loadInternal(onChunk: suspend (List<Team>) -> Unit) {
+        records.clear()
+        journalRecordCount = 0
+        if (!journalFile.exists()) {
+            if (legacyJsonFile.exists()) migrateLegacyJson().chunked(LOAD_CHUNK_SIZE).forEach { onChunk(it) }
+            return
+        }
+        var corrupted = false
+        journalFile.bufferedReader().useLines { lines ->
+            lines.forEach { line ->
+                journalRecordCount++
+                val record = checkRecord(line)
+                if (record == null) {
+                    corrupted = true
+                    return@forEach
                 }
-                groups.add(group)
+                val key = record.substring(2, record.indexOf(SEPARATOR, 2).let { if (it < 0) record.length else it })
+                        .toLongOrNull() ?: return@forEach
+                if (record[0] == OP_PUT) records[key] = line else records.remove(key)
+                if (key >= nextKey) nextKey = key + 1
             }
-            groups
         }
+        keys.values.retainAll(records.keys)
+        // Leaves no torn record that a later append could be glued to
+        if (corrupted) tryCompact()
+        var chunk = ArrayList<Team>(LOAD_CHUNK_SIZE)
+        for ((key, line) in records) {
+            val fields = checkRecord(line)!!.split(SEPARATOR, limit = 5)
+            if (fields.size < 5) continue
+            val team = Team.packed(unescape(fields[3]), unescape(fields[2]), unescape(fields[4]))
+            keys[team.uniqueId] = key
+            chunk.add(team)
+            if (chunk.size == LOAD_CHUNK_SIZE) {
+                onChunk(chunk)
+                chunk = ArrayList(LOAD_CHUNK_SIZE)
+            }
+        }
+        if (chunk.isNotEmpty()) onChunk(chunk)
     }
 
-    suspend fun store(groups: List<Team.Group>): Boolean = withContext(Dispatchers.IO) {
+    // Imports the previous single JSON file storage into the journal
+    @Throws(IOException::class)
+    private fun migrateLegacyJson(): List<Team> {
+        val groups = mutableListOf<Team.Group>()
         try {
-            makeJson(groups).run { writeJsonToFile(this) }
+            val groupsJson = JSONArray(legacyJsonFile.readText())
+            for (i in 0 until groupsJson.length()) {
+                val groupJson = groupsJson.getJSONObject(i)
+                val group = Team.Group(groupJson.getString(LEGACY_JSON_KEY_FORMAT))
+                val teamsJson = groupJson.getJSONArray(LEGACY_JSON_KEY_TEAMS)
+                for (j in 0 until teamsJson.length()) {
+                    val teamJson = teamsJson.getJSONObject(j)
+                    val label = teamJson.optString(LEGACY_JSON_KEY_TEAM_LABEL)
+                    val data = teamJson.getString(LEGACY_JSON_KEY_TEAM_DATA)
+                    group.teams.add(Team.packed(label, group.format, data))
+                }
+                groups.add(group)
+            }
+        } catch (e: JSONException) {
+            Timber.e(e)
+            return emptyList()
+        }
+        groups.forEach { group ->
+            group.teams.forEach { team ->
+                val key = nextKey++
+                keys[team.uniqueId] = key
+                records[key] = putRecord(key, group.format, team)
+            }
+        }
+        if (tryCompact()) legacyJsonFile.delete()
+        return groups.flatMap { it.teams }
+    }
+
+    fun put(team: Team) = putAll(listOf(team))
+
+    // Result tells whether the teams made it to the journal
+    fun putAll(teams: List<Team>) = enqueue {
+        val lines = teams.map { team ->
+            val key = keys.getOrPut(team.uniqueId) { nextKey++ }
+            putRecord(key, team.format?.toId() ?: "", team).also { records[key] = it }
+        }
+        append(lines)
+    }
+
+    fun remove(team: Team) = enqueue {
+        val key = keys.remove(team.uniqueId) ?: return@enqueue true
+        records.remove(key)
+        append(listOf(record("$OP_DELETE$SEPARATOR$key")))
+    }
+
+    private fun enqueue(apply: () -> Boolean): Deferred<Boolean> {
+        val result = CompletableDeferred<Boolean>()
+        writes.offer(Write(apply, result))
+        return result
+    }
+
+    private fun append(lines: List<String>): Boolean {
+        return try {
+            FileOutputStream(journalFile, true).use { output ->
+                val writer = output.bufferedWriter()
+                lines.forEach { writer.write(it); writer.write("\n") }
+                writer.flush()
+                output.fd.sync()
+            }
+            journalRecordCount += lines.size
+            if (journalRecordCount > 2 * records.size + COMPACTION_SLACK) tryCompact()
             true
-        } catch (e: Exception) {
-            if (e is JSONException || e is IOException) Timber.e(e)
+        } catch (e: IOException) {
+            Timber.e(e)
             false
         }
     }
 
-    @Throws(JSONException::class)
-    private fun makeJson(groups: List<Team.Group>): JSONArray {
-        val jsonArray = JSONArray()
-        val formats = groups.map { it.format.toId() }.toSet()
-        formats.forEach { formatId ->
-            val teams = groups.filter { it.format.toId() == formatId }.flatMap { it.teams }
-            if (teams.isEmpty()) return@forEach
-            JSONObject().apply {
-                put(JSON_KEY_FORMAT, formatId)
-                put(JSON_KEY_TEAMS, JSONArray().apply {
-                    teams.forEach { team ->
-                        put(JSONObject().apply {
-                            put(JSON_KEY_TEAM_LABEL, team.label)
-                            put(JSON_KEY_TEAM_DATA, team.pack())
-                        })
-                    }
-                })
-            }.also { jsonArray.put(it) }
+    private fun tryCompact() = try {
+        compact()
+        true
+    } catch (e: IOException) {
+        Timber.e(e)
+        false
+    }
+
+    @Throws(IOException::class)
+    private fun compact() {
+        try {
+            FileOutputStream(tmpFile).use { output ->
+                val writer = output.bufferedWriter()
+                records.values.forEach { writer.write(it); writer.write("\n") }
+                writer.flush()
+                output.fd.sync()
+            }
+            if (!tmpFile.renameTo(journalFile)) throw IOException("Could not replace teams journal")
+            journalRecordCount = records.size
+        } finally {
+            tmpFile.delete()
         }
-        return jsonArray
     }
 
-    @Throws(JSONException::class, FileNotFoundException::class)
-    private fun readJsonFromFile() = JSONArray(jsonFile.readText())
+    companion object {
+        private const val FILE_NAME = "user_teams.journal"
+        private const val COMPACTION_SLACK = 64
+        private const val LOAD_CHUNK_SIZE = 100
+
+        private const val OP_PUT = 'P'
+        private const val OP_DELETE = 'D'
+        private const val SEPARATOR = '\t'
 
-    private fun writeJsonToFile(json: JSONArray) = jsonFile.writeText(json.toString())
+        private const val LEGACY_FILE_NAME = "user_teams.json"
+        private const val LEGACY_JSON_KEY_FORMAT = "label"
+        private const val LEGACY_JSON_KEY_TEAMS = "teams"
+        private const val LEGACY_JSON_KEY_TEAM_LABEL = "label"
+        private const val LEGACY_JSON_KEY_TEAM_DATA = "data"
 
-    companion object {
-        private const val FILE_NAME = "user_teams.json"
-        private const val JSON_KEY_FORMAT = "label"
-        private const val JSON_KEY_TEAMS = "teams"
-        private const val JSON_KEY_TEAM_LABEL = "label"
-        private const val JSON_KEY_TEAM_DATA = "data"
-    }
+        // Record line is "CRC<tab>OP<tab>KEY[<tab>FORMAT<tab>LABEL<tab>DATA]"
+        private fun putRecord(key: Long, format: String, team: Team) =
+                record("$OP_PUT$SEPARATOR$key$SEPARATOR${escape(format)}$SEPARATOR${escape(team.label)}$SEPARATOR${escape(team.pack())}")
 
+        private fun record(content: String) = "${crc(content)}$SEPARATOR$content"
+
+        // Returns the record content or null if it does not match its checksum
+        private fun checkRecord(line: String): String? {
+            val index = line.indexOf(SEPARATOR)
+            if (index < 0) return null
+            val content = line.substring(index + 1)
+            if (content.length < 3 || line.substring(0, index) != crc(content)) return null
+            if (content[0] != OP_PUT && content[0] != OP_DELETE) return null
+            return content
+        }
+
+        private fun crc(content: String) = CRC32().run {
+            update(content.toByteArray())
+            java.lang.Long.toHexString(value)
+        }
+
+        private fun escape(s: String): String {
+            if (s.none { it == '\\' || it == '\t' || it == '\n' || it == '\r' }) return s
+            return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r")
+        }
+
+        private fun unescape(s: String): String {
+            if (s.indexOf('\\') < 0) return s
+            val builder = StringBuilder(s.length)
+            var i = 0
+            while (i < s.length) {
+                val c = s[i++]
+                if (c != '\\' || i == s.length) {
+                    builder.append(c)
+                    continue
+                }
+                when (val next = s[i++]) {
+                    't' -> builder.append('\t')
+                    'n' -> builder.append('\n')
+                    'r' -> builder.append('\r')
+                    else -> builder.append(next)
+                }
+            }
+            return builder.toString()
+        }
+    }
 }
@@ -0,0 +1,87 @@
+package com.majeur.psclient.model
+
+import com.majeur.psclient.util.toId
+import java.util.*
+
+/**
+ * Users of a room grouped by rank, in Showdown's user list order, then sorted by user id.
+ * Joins and leaves are O(log n), the "|users|" payload is loaded in bulk.
+ */
+class RoomUsers : Iterable<RoomUsers.User> {
+
+    class User(val rank: Char, val name: String, val id: String) {
+        override fun toString() = if (rank == ' ') name else "$rank$name"
+    }
+
+    private val byId = HashMap<String, User>()
+    private val sorted = TreeSet<User>(COMPARATOR)
+
+    val size get() = byId.size
+
+    operator fun contains(userId: String) = byId.containsKey(userId)
+
+    override fun iterator(): Iterator<User> = Collections.unmodifiableSet(sorted).iterator()
+
+    fun toList() = sorted.map { it.toString() }
+
+    fun add(rawName: String) {
+        val user = parse(rawName, 0, rawName.length) ?: return
+        byId.put(user.id, user)?.let { sorted.remove(it) }
+        sorted.add(user)
+    }
+
+    fun remove(rawName: String): Boolean {
+        val user = byId.remove(parse(rawName, 0, rawName.length)?.id ?: return false) ?: return false
+        return sorted.remove(user)
+    }
+
+    fun rename(rawName: String, oldId: String) {
+        byId.remove(oldId)?.let { sorted.remove(it) }
+        add(rawName)
+    }
+
+    // Payload is "COUNT,USER1,USER2,...", each user prefixed by its rank char
+    fun setAll(rawUsers: String) {
+        clear()
+        val users = ArrayList<User>()
+        var start = rawUsers.indexOf(',') + 1
+        while (start in 1..rawUsers.length) {
+            var end = rawUsers.indexOf(',', start)
+            if (end < 0) end = rawUsers.length
+            parse(rawUsers, start, end)?.let { user ->
+                if (byId.put(user.id, user) == null) users.add(user)
+            }
+            start = end + 1
+        }
+        sorted.addAll(users)
+    }
+
+    fun clear() {
+        byId.clear()
+        sorted.clear()
+    }
+
+    companion object {
+
+        // Showdown's rank order, users with unknown ranks are listed right after regular users
+        private const val RANK_ORDER = "~&#★@%§*☆+^ ‽!"
+
+        private fun rankIndex(rank: Char) = RANK_ORDER.indexOf(rank).let { if (it < 0) RANK_ORDER.indexOf(' ') else it }
+
+        private val COMPARATOR = Comparator<User> { u1, u2 ->
+            val byRank = rankIndex(u1.rank) - rankIndex(u2.rank)
+            if (byRank != 0) byRank else u1.id.compareTo(u2.id)
+        }
+
+        private fun parse(raw: String, start: Int, end: Int): User? {
+            if (end - start < 2) return null
+            // An optional "@status" suffix can follow the name
+            var nameEnd = raw.indexOf('@', start + 2)
+            if (nameEnd < 0 || nameEnd > end) nameEnd = end
+            val name = raw.substring(start + 1, nameEnd)
+            val id = name.toId()
+            if (id.isEmpty()) return null
+            return User(raw[start], name, id)
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.majeur.psclient.model.battle
+
+import com.majeur.psclient.model.common.Stats
+import com.majeur.psclient.model.common.TypeChart
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Damage estimates with the main formula of the current generations. Attacker and defender are set
+ * beforehand and moves are then evaluated with integer arithmetic only, so that every move can be
+ * checked against every target without allocating. Foe spreads are unknown, ranges go from the
+ * lowest roll against a fully invested foe to the highest roll against an uninvested one.
+ * Abilities, items, weather, screens and critical hits are not taken into account.
+ * Instances are not thread safe.
+ */
+class DamageCalculator {
+
+    private var attackerLevel = 100
+    private var attack = 0
+    private var specialAttack = 0
+    private var burned = false
+    private var attackerType1 = TypeChart.NONE
+    private var attackerType2 = TypeChart.NONE
+
+    private var defenderType1 = TypeChart.NONE
+    private var defenderType2 = TypeChart.NONE
+    private var minHp = 1
+    private var maxHp = 1
+    private var minDefense = 1
+    private var maxDefense = 1
+    private var minSpecialDefense = 1
+    private var maxSpecialDefense = 1
+
+    // Stats are the actual ones, as sent in requests
+    fun setAttacker(level: Int, stats: Stats, modifiers: StatModifiers?, type1: Int, type2: Int, burned: Boolean) {
+        attackerLevel = level
+        attack = boosted(stats.atk, modifiers?.modifier("atk") ?: 1f)
+        specialAttack = boosted(stats.spa, modifiers?.modifier("spa") ?: 1f)
+        attackerType1 = type1
+        attackerType2 = type2
+        this.burned = burned
+    }
+
+    fun setDefender(level: Int, baseStats: Stats, modifiers: StatModifiers?, type1: Int, type2: Int) {
+        defenderType1 = type1
+        defenderType2 = type2
+        if (baseStats.hp == 1) { // Shedinja
+            minHp = 1
+            maxHp = 1
+        } else {
+            minHp = Stats.calculateHp(baseStats.hp, MAX_IV, 0, level)
+            maxHp = Stats.calculateHp(baseStats.hp, MAX_IV, MAX_EV, level)
+        }
+        val defModifier = modifiers?.modifier("def") ?: 1f
+        val spdModifier = modifiers?.modifier("spd") ?: 1f
+        minDefense = boosted(Stats.calculateStat(baseStats.def, MAX_IV, 0, level, 1f), defModifier)
+        maxDefense = boosted(Stats.calculateStat(baseStats.def, MAX_IV, MAX_EV, level, 1.1f), defModifier)
+        minSpecialDefense = boosted(Stats.calculateStat(baseStats.spd, MAX_IV, 0, level, 1f), spdModifier)
+        maxSpecialDefense = boosted(Stats.calculateStat(baseStats.spd, MAX_IV, MAX_EV, level, 1.1f), spdModifier)
+    }
+
+    // Range in percent of the defender max HP, see rangeMin() and rangeMax(), or UNKNOWN
+    fun percentRange(details: Move.Details, spread: Boolean): Int {
+        val physical = details.category.equals("physical", ignoreCase = true)
+        if (!physical && !details.category.equals("special", ignoreCase = true)) return UNKNOWN
+        // Fixed and variable damage moves have no base power in the dex
+        val basePower = details.basePower
+        if (basePower <= 0) return UNKNOWN
+
+        val moveType = TypeChart.indexOf(details.type)
+        val effectiveness = TypeChart.effectiveness(moveType, defenderType1, defenderType2)
+        if (effectiveness == 0f) return pack(0, 0)
+        val stab = moveType != TypeChart.NONE && (moveType == attackerType1 || moveType == attackerType2)
+        val halved = physical && burned
+
+        val attackStat = if (physical) attack else specialAttack
+        val minDamage = damage(attackStat, if (physical) maxDefense else maxSpecialDefense, basePower, MIN_ROLL,
+                spread, stab, effectiveness, halved)
+        val maxDamage = damage(attackStat, if (physical) minDefense else minSpecialDefense, basePower, MAX_ROLL,
+                spread, stab, effectiveness, halved)
+        return pack(minDamage * 100 / maxHp, (maxDamage * 100 + minHp - 1) / minHp)
+    }
+
+    private fun damage(attack: Int, defense: Int, basePower: Int, roll: Int, spread: Boolean, stab: Boolean,
+                       effectiveness: Float, halved: Boolean): Int {
+        var damage = (2 * attackerLevel / 5 + 2) * basePower * attack / max(1, defense) / 50 + 2
+        if (spread) damage = pokeRound(damage, SPREAD_MODIFIER)
+        damage = damage * roll / 100
+        if (stab) damage = pokeRound(damage, STAB_MODIFIER)
+        damage = (damage * effectiveness).toInt()
+        if (halved) damage /= 2
+        return max(1, damage)
+    }
+
+    private fun boosted(stat: Int, modifier: Float) = (stat * modifier).toInt()
+
+    // Modifiers are applied in 4096ths and halves are rounded down, as the games do
+    private fun pokeRound(value: Int, modifier: Int) = (value * modifier + 2047) / 4096
+
+    companion object {
+        const val UNKNOWN = -1
+
+        private const val MAX_IV = 31
+        private const val MAX_EV = 252
+        private const val MIN_ROLL = 85
+        private const val MAX_ROLL = 100
+        private const val SPREAD_MODIFIER = 3072
+        private const val STAB_MODIFIER = 6144
+
+        private fun pack(low: Int, high: Int) = min(low, 0xFFFF) shl 16 or min(high, 0xFFFF)
+
+        fun rangeMin(range: Int) = range ushr 16
+
+        fun rangeMax(range: Int) = range and 0xFFFF
+    }
+}
@@ -0,0 +1,264 @@
+package com.majeur.psclient.model.common
+
+import com.majeur.psclient.model.pokemon.TeamPokemon
+import com.majeur.psclient.util.toId
+
+/**
+ * Showdown's packed team format. Pokemons are separated by ']', their fields by '|':
+ * NAME|SPECIES|ITEM|ABILITY|MOVES|NATURE|EVS|GENDER|IVS|SHINY|LEVEL|HAPPINESS,HPTYPE,POKEBALL,GIGANTAMAX,DYNAMAXLEVEL
+ * Default values are left blank. Fields are read by index over the packed string and numbers are
+ * parsed in place. Instances keep scratch buffers between calls and are not thread safe.
+ */
+class PackedTeamCodec {
+
+    private val builder = StringBuilder(512)
+    private val fieldEnds = IntArray(FIELD_COUNT)
+    private val stats = IntArray(6)
+
+    fun pack(pokemons: List<TeamPokemon>): String {
+        val buf = builder
+        buf.setLength(0)
+        for (set in pokemons) {
+            if (buf.isNotEmpty()) buf.append(']')
+            // Species is left blank when it can be read from the name
+            val blankName = set.name.isEmpty() || set.name.toId() == set.species.toId()
+            buf.append(if (blankName) set.species else set.name).append('|')
+            if (!blankName) buf.append(set.species)
+            buf.append('|').append(set.item.toId())
+            buf.append('|').append(set.ability.toId())
+            buf.append('|')
+            set.moves.forEachIndexed { index, move ->
+                if (index > 0) buf.append(',')
+                buf.append(move)
+            }
+            buf.append('|').append(set.nature)
+            buf.append('|')
+            appendStats(buf, set.evs, 0)
+            buf.append('|').append(set.gender)
+            buf.append('|')
+            appendStats(buf, set.ivs, 31)
+            buf.append('|')
+            if (set.shiny) buf.append('S')
+            buf.append('|')
+            if (set.level != 100) buf.append(set.level)
+            buf.append('|')
+            if (set.happiness != 255) buf.append(set.happiness)
+            val pokeball = set.pokeball.toId()
+            if (set.hpType.isNotEmpty() || pokeball.isNotEmpty() || set.gigantamax || set.dynamaxLevel != 10) {
+                buf.append(',').append(set.hpType)
+                buf.append(',').append(pokeball)
+                buf.append(',')
+                if (set.gigantamax) buf.append('G')
+                buf.append(',')
+                if (set.dynamaxLevel != 10) buf.append(set.dynamaxLevel)
+            }
+        }
+        return buf.toString()
+    }
+
+    // Stats equal to the default value are left blank, a blank field stands for all defaults
+    private fun appendStats(buf: StringBuilder, stats: Stats, default: Int) {
+        if (stats.hp == default && stats.atk == default && stats.def == default && stats.spa == default &&
+                stats.spd == default && stats.spe == default) return
+        if (stats.hp != default) buf.append(stats.hp)
+        buf.append(',')
+        if (stats.atk != default) buf.append(stats.atk)
+        buf.append(',')
+        if (stats.def != default) buf.append(stats.def)
+        buf.append(',')
+        if (stats.spa != default) buf.append(stats.spa)
+        buf.append(',')
+        if (stats.spd != default) buf.append(stats.spd)
+        buf.append(',')
+        if (stats.spe != default) buf.append(stats.spe)
+    }
+
+    // Returns null if the data is malformed
+    fun unpack(buf: String): List<TeamPokemon>? {
+        val pokemons = ArrayList<TeamPokemon>(6)
+        var start = 0
+        while (pokemons.size < MAX_POKEMONS) {
+            var end = buf.indexOf(']', start)
+            if (end < 0) end = buf.length
+            pokemons.add(unpackPokemon(buf, start, end) ?: return null)
+            if (end == buf.length) break
+            start = end + 1
+        }
+        return pokemons
+    }
+
+    private fun unpackPokemon(buf: String, start: Int, end: Int): TeamPokemon? {
+        // Last field runs up to the end of the pokemon
+        val ends = fieldEnds
+        var i = start
+        for (field in 0 until FIELD_COUNT - 1) {
+            val j = buf.indexOf('|', i)
+            if (j < 0 || j > end) return null
+            ends[field] = j
+            i = j + 1
+        }
+        ends[FIELD_COUNT - 1] = end
+
+        val name = buf.substring(start, ends[NAME])
+        val species = if (ends[SPECIES] == ends[NAME] + 1) name else buf.substring(ends[NAME] + 1, ends[SPECIES])
+        val pokemon = TeamPokemon(species)
+        if (name != species) pokemon.name = name
+        pokemon.item = field(buf, ITEM)
+        pokemon.ability = field(buf, ABILITY)
+        pokemon.moves = splitMoves(buf, ends[ABILITY] + 1, ends[MOVES])
+        pokemon.nature = field(buf, NATURE)
+        if (readStats(buf, ends[NATURE] + 1, ends[EVS], 0)) copyStats(pokemon.evs)
+        pokemon.gender = field(buf, GENDER)
+        if (readStats(buf, ends[GENDER] + 1, ends[IVS], 31)) copyStats(pokemon.ivs)
+        pokemon.shiny = ends[SHINY] != ends[IVS] + 1
+        pokemon.level = parseInt(buf, ends[SHINY] + 1, ends[LEVEL], 100)
+
+        // Misc field is "HAPPINESS[,HPTYPE,POKEBALL,GIGANTAMAX,DYNAMAXLEVEL]"
+        var miscStart = ends[LEVEL] + 1
+        val miscEnd = ends[MISC]
+        var miscIndex = 0
+        while (miscStart <= miscEnd) {
+            var j = buf.indexOf(',', miscStart)
+            if (j < 0 || j > miscEnd) j = miscEnd
+            when (miscIndex++) {
+                0 -> pokemon.happiness = parseInt(buf, miscStart, j, 255)
+                1 -> pokemon.hpType = buf.substring(miscStart, j)
+                2 -> pokemon.pokeball = buf.substring(miscStart, j)
+                3 -> pokemon.gigantamax = j > miscStart
+                4 -> pokemon.dynamaxLevel = parseInt(buf, miscStart, j, 10)
+            }
+            miscStart = j + 1
+        }
+        return pokemon
+    }
+
+    private fun field(buf: String, field: Int) = buf.substring(fieldEnds[field - 1] + 1, fieldEnds[field])
+
+    private fun splitMoves(buf: String, start: Int, end: Int): MutableList<String> {
+        val moves = ArrayList<String>(4)
+        if (start == end) return moves
+        var i = start
+        while (moves.size < MAX_MOVES) {
+            var j = buf.indexOf(',', i)
+            if (j < 0 || j > end) j = end
+            moves.add(buf.substring(i, j))
+            if (j == end) break
+            i = j + 1
+        }
+        return moves
+    }
+
+    // Fills the scratch stats array, returns false if the field is blank
+    private fun readStats(buf: String, start: Int, end: Int, default: Int): Boolean {
+        if (start == end) return false
+        var i = start
+        for (stat in 0 until 6) {
+            if (i > end) { // Missing values
+                stats[stat] = default
+                continue
+            }
+            var j = buf.indexOf(',', i)
+            if (j < 0 || j > end) j = end
+            stats[stat] = parseInt(buf, i, j, default)
+            i = j + 1
+        }
+        return true
+    }
+
+    private fun copyStats(target: Stats) {
+        target.hp = stats[0]
+        target.atk = stats[1]
+        target.def = stats[2]
+        target.spa = stats[3]
+        target.spd = stats[4]
+        target.spe = stats[5]
+    }
+
+    companion object {
+        private const val MAX_POKEMONS = 24
+        private const val MAX_MOVES = 24
+
+        private const val FIELD_COUNT = 12
+        private const val NAME = 0
+        private const val SPECIES = 1
+        private const val ITEM = 2
+        private const val ABILITY = 3
+        private const val MOVES = 4
+        private const val NATURE = 5
+        private const val EVS = 6
+        private const val GENDER = 7
+        private const val IVS = 8
+        private const val SHINY = 9
+        private const val LEVEL = 10
+        private const val MISC = 11
+
+        // Parses a positive number, anything else gives the default value
+        private fun parseInt(buf: String, start: Int, end: Int, default: Int): Int {
+            if (start >= end || end - start > 9) return default
+            var value = 0
+            for (i in start until end) {
+                val digit = buf[i] - '0'
+                if (digit < 0 || digit > 9) return default
+                value = value * 10 + digit
+            }
+            return value
+        }
+
+        // Hands out ids of the name, species, item, ability and moves of each pokemon
+        fun forEachSearchTerm(buf: String, action: (String) -> Unit) {
+            var i = 0
+            var field = 0
+            while (i < buf.length) {
+                var j = i
+                while (j < buf.length && buf[j] != '|' && buf[j] != ']' && buf[j] != ',') j++
+                if (field <= MOVES && j > i) action(buf.substring(i, j).toId())
+                if (j == buf.length) break
+                when (buf[j]) {
+                    '|' -> field++
+                    ']' -> field = 0
+                }
+                i = j + 1
+            }
+        }
+
+        // Adds ids of the species, item and moves of each pokemon, without unpacking them
+        fun collectAssetIds(buf: String, speciesIds: MutableCollection<String>, itemIds: MutableCollection<String>,
+                            moveIds: MutableCollection<String>) {
+            speciesIds.addAll(speciesIds(buf))
+            var i = 0
+            var field = 0
+            while (i < buf.length) {
+                var j = i
+                while (j < buf.length && buf[j] != '|' && buf[j] != ']' && buf[j] != ',') j++
+                if (j > i && (field == ITEM || field == MOVES)) {
+                    val id = buf.substring(i, j).toId()
+                    if (id.isNotEmpty()) (if (field == ITEM) itemIds else moveIds).add(id)
+                }
+                if (j == buf.length) break
+                when (buf[j]) {
+                    '|' -> field++
+                    ']' -> field = 0
+                }
+                i = j + 1
+            }
+        }
+
+        // Species are the second field of each pokemon, or the first one when it is blank
+        fun speciesIds(buf: String): List<String> {
+            val species = mutableListOf<String>()
+            var i = 0
+            while (i < buf.length && species.size < MAX_POKEMONS) {
+                val nameEnd = buf.indexOf('|', i)
+                if (nameEnd < 0) break
+                val speciesEnd = buf.indexOf('|', nameEnd + 1)
+                if (speciesEnd < 0) break
+                species.add(if (speciesEnd == nameEnd + 1) buf.substring(i, nameEnd).toId()
+                        else buf.substring(nameEnd + 1, speciesEnd).toId())
+                val next = buf.indexOf(']', speciesEnd)
+                if (next < 0) break
+                i = next + 1
+            }
+            return species
+        }
+    }
+}
@@ -1,8 +1,6 @@
 package com.majeur.psclient.model.common
 
-import android.text.SpannableStringBuilder
-import com.majeur.psclient.util.concat
-import com.majeur.psclient.util.small
+import com.majeur.psclient.util.buildSpanned
 import com.majeur.psclient.util.toId
 import org.json.JSONObject
 import java.io.Serializable
@@ -246,12 +244,18 @@ class Stats() : Serializable {
 
     fun summaryText(nature: Nature = Nature.DEFAULT): CharSequence {
         val a = arrayOf(nature.plus, nature.minus)
-        return (0 until 6).filter { i -> get(i) != 0 || a.contains(getName(i)!!.toId()) }
-                .joinTo(SpannableStringBuilder()) { i ->
-                    val name = getName(i)!!
-                    val natSign = if (name.toId() == nature.plus) "+" else if (name.toId() == nature.minus) "-" else ""
-                    "${get(i)}" concat  natSign.small()  concat name.small()
-                }
+        return buildSpanned {
+            var first = true
+            for (i in 0 until 6) {
+                val name = getName(i)!!
+                val id = name.toId()
+                if (get(i) == 0 && !a.contains(id)) continue
+                if (!first) append(", ")
+                first = false
+                val natSign = if (id == nature.plus) "+" else if (id == nature.minus) "-" else ""
+                append(get(i)).small { append(natSign).append(name) }
+            }
+        }
     }
 
     companion object {
@@ -0,0 +1,62 @@
+package com.majeur.psclient.model.common
+
+import com.majeur.psclient.util.toId
+
+/**
+ * Inverted index of teams by the ids of their label words, species, nicknames, items, abilities
+ * and moves. A query term matches every indexed term containing it, so "scarf" finds teams
+ * holding a Choice Scarf, and teams must match all terms of a query.
+ * Distinct terms are few compared to teams, queries only scan them and intersect posting sets.
+ */
+class TeamIndex {
+
+    private val postings = HashMap<String, MutableSet<Int>>()
+    private val termsByTeam = HashMap<Int, Set<String>>()
+
+    val size get() = termsByTeam.size
+
+    fun add(team: Team) {
+        remove(team)
+        val terms = HashSet<String>()
+        team.label.split(WORD_SEPARATOR).forEach { word -> word.toId().takeIf { it.isNotEmpty() }?.let { terms.add(it) } }
+        team.label.toId().takeIf { it.isNotEmpty() }?.let { terms.add(it) }
+        PackedTeamCodec.forEachSearchTerm(team.pack()) { terms.add(it) }
+        termsByTeam[team.uniqueId] = terms
+        terms.forEach { term -> postings.getOrPut(term) { HashSet() }.add(team.uniqueId) }
+    }
+
+    fun remove(team: Team) {
+        val terms = termsByTeam.remove(team.uniqueId) ?: return
+        terms.forEach { term ->
+            val ids = postings[term] ?: return@forEach
+            ids.remove(team.uniqueId)
+            if (ids.isEmpty()) postings.remove(term)
+        }
+    }
+
+    fun clear() {
+        postings.clear()
+        termsByTeam.clear()
+    }
+
+    // Returns unique ids of the matching teams, or null when the query has no terms
+    fun search(query: String): Set<Int>? {
+        val terms = query.split(WORD_SEPARATOR).map { it.toId() }.filter { it.isNotEmpty() }.distinct()
+        if (terms.isEmpty()) return null
+        var result: MutableSet<Int>? = null
+        // Longer terms match fewer teams, intersecting them first keeps the result small
+        for (term in terms.sortedByDescending { it.length }) {
+            val matches = HashSet<Int>()
+            postings[term]?.let { matches.addAll(it) }
+            postings.forEach { (indexed, ids) -> if (indexed.length > term.length && indexed.contains(term)) matches.addAll(ids) }
+            val narrowed = result?.apply { retainAll(matches) } ?: matches
+            result = narrowed
+            if (narrowed.isEmpty()) break
+        }
+        return result
+    }
+
+    companion object {
+        private val WORD_SEPARATOR = Regex("\\s+")
+    }
+}
@@ -0,0 +1,123 @@
+package com.majeur.psclient.model.common
+
+/**
+ * Type effectiveness of the current generations, backed by a flat 18x18 multiplier matrix indexed
+ * like [Type.ALL]. Defensive profiles of every type combination are precomputed as bitmasks over
+ * attacking types (bit i stands for Type.ALL[i]) so that team summaries are only bit operations.
+ * Abilities, items and field effects are not taken into account.
+ */
+object TypeChart {
+
+    const val COUNT = 18
+    const val NONE = -1
+
+    private const val BUG = 0
+    private const val DARK = 1
+    private const val DRAGON = 2
+    private const val ELECTRIC = 3
+    private const val FIGHTING = 4
+    private const val FIRE = 5
+    private const val FLYING = 6
+    private const val GHOST = 7
+    private const val GRASS = 8
+    private const val GROUND = 9
+    private const val ICE = 10
+    private const val POISON = 11
+    private const val PSYCHIC = 12
+    private const val ROCK = 13
+    private const val STEEL = 14
+    private const val WATER = 15
+    private const val NORMAL = 16
+    private const val FAIRY = 17
+
+    // Multiplier of attacking type a against defending type d is at a * COUNT + d
+    private val matrix = FloatArray(COUNT * COUNT) { 1f }
+
+    // Defensive masks of each combination, at (type1 + 1) * (COUNT + 1) + type2 + 1
+    private val weaknessMasks = IntArray((COUNT + 1) * (COUNT + 1))
+    private val resistanceMasks = IntArray((COUNT + 1) * (COUNT + 1))
+    private val immunityMasks = IntArray((COUNT + 1) * (COUNT + 1))
+
+    // Defending types each attacking type hits super effectively
+    private val superEffectiveMasks = IntArray(COUNT)
+
+    init {
+        chart(NORMAL, strong = intArrayOf(), weak = intArrayOf(ROCK, STEEL), immune = intArrayOf(GHOST))
+        chart(FIRE, strong = intArrayOf(GRASS, ICE, BUG, STEEL), weak = intArrayOf(FIRE, WATER, ROCK, DRAGON))
+        chart(WATER, strong = intArrayOf(FIRE, GROUND, ROCK), weak = intArrayOf(WATER, GRASS, DRAGON))
+        chart(ELECTRIC, strong = intArrayOf(WATER, FLYING), weak = intArrayOf(ELECTRIC, GRASS, DRAGON), immune = intArrayOf(GROUND))
+        chart(GRASS, strong = intArrayOf(WATER, GROUND, ROCK), weak = intArrayOf(FIRE, GRASS, POISON, FLYING, BUG, DRAGON, STEEL))
+        chart(ICE, strong = intArrayOf(GRASS, GROUND, FLYING, DRAGON), weak = intArrayOf(FIRE, WATER, ICE, STEEL))
+        chart(FIGHTING, strong = intArrayOf(NORMAL, ICE, ROCK, DARK, STEEL), weak = intArrayOf(POISON, FLYING, PSYCHIC, BUG, FAIRY), immune = intArrayOf(GHOST))
+        chart(POISON, strong = intArrayOf(GRASS, FAIRY), weak = intArrayOf(POISON, GROUND, ROCK, GHOST), immune = intArrayOf(STEEL))
+        chart(GROUND, strong = intArrayOf(FIRE, ELECTRIC, POISON, ROCK, STEEL), weak = intArrayOf(GRASS, BUG), immune = intArrayOf(FLYING))
+        chart(FLYING, strong = intArrayOf(GRASS, FIGHTING, BUG), weak = intArrayOf(ELECTRIC, ROCK, STEEL))
+        chart(PSYCHIC, strong = intArrayOf(FIGHTING, POISON), weak = intArrayOf(PSYCHIC, STEEL), immune = intArrayOf(DARK))
+        chart(BUG, strong = intArrayOf(GRASS, PSYCHIC, DARK), weak = intArrayOf(FIRE, FIGHTING, POISON, FLYING, GHOST, STEEL, FAIRY))
+        chart(ROCK, strong = intArrayOf(FIRE, ICE, FLYING, BUG), weak = intArrayOf(FIGHTING, GROUND, STEEL))
+        chart(GHOST, strong = intArrayOf(PSYCHIC, GHOST), weak = intArrayOf(DARK), immune = intArrayOf(NORMAL))
+        chart(DRAGON, strong = intArrayOf(DRAGON), weak = intArrayOf(STEEL), immune = intArrayOf(FAIRY))
+        chart(DARK, strong = intArrayOf(PSYCHIC, GHOST), weak = intArrayOf(FIGHTING, DARK, FAIRY))
+        chart(STEEL, strong = intArrayOf(ICE, ROCK, FAIRY), weak = intArrayOf(FIRE, WATER, ELECTRIC, STEEL))
+        chart(FAIRY, strong = intArrayOf(FIGHTING, DRAGON, DARK), weak = intArrayOf(FIRE, POISON, STEEL))
+
+        for (type1 in NONE until COUNT) for (type2 in NONE until COUNT) {
+            val pair = pairIndex(type1, type2)
+            for (attack in 0 until COUNT) {
+                val multiplier = effectiveness(attack, type1, type2)
+                val bit = 1 shl attack
+                when {
+                    multiplier == 0f -> immunityMasks[pair] = immunityMasks[pair] or bit
+                    multiplier > 1f -> weaknessMasks[pair] = weaknessMasks[pair] or bit
+                    multiplier < 1f -> resistanceMasks[pair] = resistanceMasks[pair] or bit
+                }
+            }
+        }
+    }
+
+    private fun chart(attack: Int, strong: IntArray, weak: IntArray, immune: IntArray = intArrayOf()) {
+        strong.forEach { matrix[attack * COUNT + it] = 2f }
+        weak.forEach { matrix[attack * COUNT + it] = 0.5f }
+        immune.forEach { matrix[attack * COUNT + it] = 0f }
+        superEffectiveMasks[attack] = strong.fold(0) { mask, defense -> mask or (1 shl defense) }
+    }
+
+    private fun pairIndex(type1: Int, type2: Int) = (type1 + 1) * (COUNT + 1) + type2 + 1
+
+    // Index in Type.ALL, or NONE
+    fun indexOf(type: String?): Int {
+        if (type == null) return NONE
+        val name = type.trim()
+        for (i in 0 until COUNT) if (Type.ALL[i].equals(name, ignoreCase = true)) return i
+        return NONE
+    }
+
+    fun effectiveness(attack: Int, type1: Int, type2: Int = NONE): Float {
+        if (attack == NONE) return 1f
+        var multiplier = 1f
+        if (type1 != NONE) multiplier *= matrix[attack * COUNT + type1]
+        if (type2 != NONE && type2 != type1) multiplier *= matrix[attack * COUNT + type2]
+        return multiplier
+    }
+
+    // Attacking types dealing more than neutral damage to this combination
+    fun weaknessMask(type1: Int, type2: Int = NONE) = weaknessMasks[pairIndex(type1, type2)]
+
+    // Attacking types dealing less than neutral damage, immunities excluded
+    fun resistanceMask(type1: Int, type2: Int = NONE) = resistanceMasks[pairIndex(type1, type2)]
+
+    fun immunityMask(type1: Int, type2: Int = NONE) = immunityMasks[pairIndex(type1, type2)]
+
+    // Defending types this attacking type hits super effectively
+    fun superEffectiveMask(attack: Int) = if (attack == NONE) 0 else superEffectiveMasks[attack]
+
+    // Adds one to counts[i] for each bit i set in mask
+    fun accumulate(mask: Int, counts: IntArray) {
+        var bits = mask
+        while (bits != 0) {
+            val i = Integer.numberOfTrailingZeros(bits)
+            counts[i]++
+            bits = bits and (bits - 1)
+        }
+    }
+}
@@ -17,6 +17,8 @@ class TeamPokemon() : BasePokemon() {
     var happiness = 255
     var hpType: String = ""
     var pokeball: String = ""
+    var gigantamax = false
+    var dynamaxLevel = 10
 
     constructor(species: String) : this() {
         this.species = species
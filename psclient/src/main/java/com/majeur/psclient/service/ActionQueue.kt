@@ -18,6 +18,16 @@ class ActionQueue(looper: Looper) {
     var shouldLoopToLastTurn = true
     var enableLastActionInvoke = false
 
+    // When set, actions are invoked as soon as they are posted, without any delay.
+    // Last action is kept until the loop is started again.
+    var immediate = false
+        set(value) {
+            field = value
+            if (!value) return
+            stopLoop()
+            while (actions.isNotEmpty()) actions.removeAt(0).action.invoke()
+        }
+
     fun clear() {
         stopLoop()
         lastAction = null
@@ -44,6 +54,7 @@ class ActionQueue(looper: Looper) {
     }
 
     private fun insert(action: ()->Unit, delay: Long, isTurn: Boolean) {
+        if (immediate) return action.invoke()
         actions.add(0, Action(action, delay, isTurn))
         if (!isLooping) startLoop()
     }
@@ -61,6 +72,7 @@ class ActionQueue(looper: Looper) {
     }
 
     private fun enqueue(action: ()->Unit, delay: Long, isTurn: Boolean) {
+        if (immediate) return action.invoke()
         actions.add(Action(action, delay, isTurn))
         if (!isLooping) startLoop()
     }
@@ -0,0 +1,116 @@
+package com.majeur.psclient.service
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import java.util.*
+
+/**
+ * Outgoing message queue. Messages are written at the rate the server accepts without throttling
+ * us, idempotent commands already waiting are not queued twice and messages are held while the
+ * socket is down, to be sent in order once it is back.
+ */
+class CommandQueue(looper: Looper, private val writer: (String) -> Boolean) {
+
+    private class Pending(val message: String, val command: String, val time: Long)
+
+    private val handler = Handler(looper)
+    private val pending = ArrayDeque<Pending>()
+
+    private var tokens = BURST
+    private var lastRefill = 0L
+    private var connected = false
+
+    @Synchronized fun enqueue(message: String) {
+        val command = commandOf(message)
+        when (command) {
+            // Sending these again while they are waiting would not change anything
+            "/cmd" -> if (pending.any { it.message == message }) return
+            // Unless the opposite command for the same room is waiting after it
+            "/join", "/leave" -> {
+                val roomId = roomOf(message, command)
+                val last = pending.lastOrNull { (it.command == "/join" || it.command == "/leave") &&
+                        roomOf(it.message, it.command) == roomId }
+                if (last?.command == command) return
+            }
+            // Only the latest toggle matters
+            "/timer" -> {
+                val roomId = message.substringBefore('|')
+                pending.removeAll { it.command == command && it.message.substringBefore('|') == roomId }
+            }
+        }
+        pending.add(Pending(message, command, SystemClock.uptimeMillis()))
+        if (pending.size == 1) scheduleFlush(0)
+    }
+
+    @Synchronized fun onConnected() {
+        connected = true
+        tokens = BURST
+        lastRefill = SystemClock.uptimeMillis()
+        // Messages held for too long are not relevant anymore
+        pending.removeAll { lastRefill - it.time > HOLD_TIMEOUT }
+        scheduleFlush(0)
+    }
+
+    @Synchronized fun onDisconnected() {
+        connected = false
+        handler.removeCallbacks(flushRunnable)
+        // Login assertions are bound to the challenge of the lost connection
+        pending.removeAll { it.command == "/trn" }
+    }
+
+    @Synchronized fun clear() {
+        handler.removeCallbacks(flushRunnable)
+        pending.clear()
+    }
+
+    private fun scheduleFlush(delay: Long) {
+        handler.removeCallbacks(flushRunnable)
+        if (connected) handler.postDelayed(flushRunnable, delay)
+    }
+
+    @Synchronized private fun flush() {
+        val now = SystemClock.uptimeMillis()
+        val refill = ((now - lastRefill) / INTERVAL).toInt()
+        if (refill > 0) {
+            tokens += refill
+            lastRefill += refill * INTERVAL
+            if (tokens >= BURST) {
+                tokens = BURST
+                lastRefill = now
+            }
+        }
+        while (tokens > 0 && pending.isNotEmpty()) {
+            if (!writer(pending.peek()!!.message)) return // Socket is gone, wait for onConnected()
+            pending.poll()
+            tokens--
+        }
+        if (pending.isNotEmpty()) scheduleFlush(lastRefill + INTERVAL - now)
+    }
+
+    @Suppress("ObjectLiteralToLambda")
+    private val flushRunnable = object : Runnable {
+        override fun run() = flush()
+    }
+
+    companion object {
+        // Server lets a few messages through at once, then one every 600ms
+        private const val BURST = 5
+        private const val INTERVAL = 600L
+        private const val HOLD_TIMEOUT = 30000L
+
+        // Message is "ROOMID|/command args" or "ROOMID|text"
+        private fun commandOf(message: String): String {
+            val start = message.indexOf('|') + 1
+            if (start >= message.length || message[start] != '/') return ""
+            val end = message.indexOf(' ', start)
+            return message.substring(start, if (end < 0) message.length else end)
+        }
+
+        // Joins name the room as argument, leaves are sent to the room or name it as argument
+        private fun roomOf(message: String, command: String): String {
+            val argument = message.substringAfter("$command ", "").trim()
+            return if (command == "/join" || argument.isNotEmpty()) argument else message.substringBefore('|')
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.majeur.psclient.service
+
+import okhttp3.*
+import java.io.File
+import java.io.IOException
+
+/**
+ * Disk cache setup for the REST endpoints we call. Showdown servers send little to no cache
+ * headers, so freshness lifetimes are set here per endpoint. Validators sent by the server are
+ * kept, stale entries are then revalidated with If-None-Match / If-Modified-Since. When the network
+ * is unavailable, whatever is in cache is served even if stale.
+ */
+object HttpCachePolicy {
+
+    private const val CACHE_DIR = "http"
+    private const val CACHE_SIZE = 20L * 1024 * 1024
+
+    private const val MINUTE = 60
+    private const val DAY = 24 * 60 * MINUTE
+
+    fun cache(cacheDir: File) = Cache(File(cacheDir, CACHE_DIR), CACHE_SIZE)
+
+    val networkInterceptor = Interceptor { chain ->
+        val request = chain.request()
+        val response = chain.proceed(request)
+        val maxAge = maxAgeFor(request.url())
+        if (maxAge == null || request.method() != "GET" || !response.isSuccessful) return@Interceptor response
+        response.newBuilder()
+                .header("Cache-Control", "public, max-age=$maxAge")
+                .removeHeader("Pragma")
+                .removeHeader("Expires")
+                .build()
+    }
+
+    val offlineInterceptor = Interceptor { chain ->
+        val request = chain.request()
+        if (request.method() != "GET" || maxAgeFor(request.url()) == null) return@Interceptor chain.proceed(request)
+        try {
+            chain.proceed(request)
+        } catch (e: IOException) {
+            val cached = chain.proceed(request.newBuilder().cacheControl(CacheControl.FORCE_CACHE).build())
+            if (cached.code() == 504) { // Not in cache
+                cached.close()
+                throw e
+            }
+            cached
+        }
+    }
+
+    // Freshness lifetime in seconds, null for endpoints we don't handle
+    private fun maxAgeFor(url: HttpUrl): Int? {
+        val path = url.encodedPath()
+        return when (url.host()) {
+            "pokemonshowdown.com" -> when {
+                path == "/news.json" -> 10 * MINUTE
+                path.startsWith("/news/") -> DAY
+                else -> null
+            }
+            "replay.pokemonshowdown.com" -> when {
+                path == "/search.json" -> MINUTE
+                path.endsWith(".json") -> 30 * DAY // Replays never change once uploaded
+                else -> null
+            }
+            else -> null
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.majeur.psclient.service
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+
+/**
+ * Measures the round trip time to the server with a cheap query answered by the server itself:
+ * details of a user that does not exist. A probe left unanswered for too long means the socket
+ * is stalled even if it has not failed yet. Probes go through the command queue like any other
+ * message, the round trip is timed from the moment the queue writes them, see [onWritten].
+ */
+class LatencyProbe(
+        looper: Looper,
+        private val send: (String) -> Unit,
+        private val onStalled: () -> Unit
+) {
+
+    private val handler = Handler(looper)
+    private var probing = false
+    private var sentAt = 0L
+
+    var interval = DEFAULT_INTERVAL
+
+    val rtt = LatencyStats()
+
+    fun start() {
+        probing = false
+        sentAt = 0L
+        handler.removeCallbacks(probeRunnable)
+        handler.postDelayed(probeRunnable, FIRST_PROBE_DELAY)
+    }
+
+    fun stop() {
+        probing = false
+        sentAt = 0L
+        handler.removeCallbacks(probeRunnable)
+    }
+
+    // Returns true if the response was our probe's, it must not reach the ui then
+    fun onQueryResponse(query: String, response: String): Boolean {
+        if (query != "userdetails" || !response.contains("\"$PROBE_USER_ID\"")) return false
+        if (!probing) return true
+        if (sentAt != 0L) rtt.record(SystemClock.uptimeMillis() - sentAt)
+        probing = false
+        sentAt = 0L
+        handler.removeCallbacks(probeRunnable)
+        handler.postDelayed(probeRunnable, interval)
+        return true
+    }
+
+    // Time spent waiting in the queue is not part of the round trip
+    fun onWritten(message: String) {
+        if (probing && message == PROBE_MESSAGE) sentAt = SystemClock.uptimeMillis()
+    }
+
+    private fun probe() {
+        if (probing) { // Still no answer
+            stop()
+            onStalled()
+            return
+        }
+        probing = true
+        send(PROBE_MESSAGE)
+        handler.postDelayed(probeRunnable, STALL_TIMEOUT)
+    }
+
+    @Suppress("ObjectLiteralToLambda")
+    private val probeRunnable = object : Runnable {
+        override fun run() = probe()
+    }
+
+    companion object {
+        private const val PROBE_USER_ID = "psclientlatencyprobe"
+        private const val PROBE_MESSAGE = "|/cmd userdetails $PROBE_USER_ID"
+        private const val DEFAULT_INTERVAL = 30000L
+        private const val FIRST_PROBE_DELAY = 5000L
+        private const val STALL_TIMEOUT = 15000L
+    }
+}
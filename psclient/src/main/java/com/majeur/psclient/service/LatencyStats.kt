@@ -0,0 +1,46 @@
+package com.majeur.psclient.service
+
+import java.util.*
+
+/**
+ * Keeps the last latency samples, in milliseconds, to give out percentiles without growing an
+ * history forever.
+ */
+class LatencyStats(private val capacity: Int = 64) {
+
+    private val samples = LongArray(capacity)
+    private val sorted = LongArray(capacity)
+    private var next = 0
+
+    var count = 0
+        private set
+
+    var last = -1L
+        private set
+
+    val p50 get() = percentile(50)
+    val p99 get() = percentile(99)
+
+    @Synchronized fun record(value: Long) {
+        samples[next] = value
+        next = (next + 1) % capacity
+        last = value
+        count++
+    }
+
+    // Nearest rank percentile over the retained samples, -1 when there is none
+    @Synchronized fun percentile(percent: Int): Long {
+        val size = count.coerceAtMost(capacity)
+        if (size == 0) return -1
+        System.arraycopy(samples, 0, sorted, 0, size)
+        Arrays.sort(sorted, 0, size)
+        val rank = (percent * size + 99) / 100
+        return sorted[(rank - 1).coerceIn(0, size - 1)]
+    }
+
+    @Synchronized fun clear() {
+        next = 0
+        count = 0
+        last = -1
+    }
+}
@@ -0,0 +1,64 @@
+package com.majeur.psclient.service
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import java.util.*
+
+/**
+ * Schedules reconnection attempts after an unexpected connection loss. Each attempt waits between
+ * half and all of an exponentially growing delay, so clients dropped together don't all come back
+ * at the same time. Time spent offline is recorded in [latencies].
+ */
+class Reconnector(looper: Looper, private val connect: () -> Unit) {
+
+    private val handler = Handler(looper)
+    private val random = Random()
+    private var lostAt = 0L
+
+    var attempts = 0
+        private set
+
+    val latencies = LatencyStats()
+
+    val isReconnecting get() = lostAt != 0L
+
+    fun onConnectionLost() {
+        if (lostAt == 0L) lostAt = SystemClock.elapsedRealtime()
+        val backoff = (BASE_DELAY shl attempts.coerceAtMost(MAX_SHIFT)).coerceAtMost(MAX_DELAY)
+        attempts++
+        val delay = backoff / 2 + (random.nextDouble() * backoff / 2).toLong()
+        handler.removeCallbacks(connectRunnable)
+        handler.postDelayed(connectRunnable, delay)
+    }
+
+    fun reconnectNow() {
+        handler.removeCallbacks(connectRunnable)
+        attempts = 0
+        connect()
+    }
+
+    fun onConnected() {
+        handler.removeCallbacks(connectRunnable)
+        if (lostAt != 0L) latencies.record(SystemClock.elapsedRealtime() - lostAt)
+        lostAt = 0L
+        attempts = 0
+    }
+
+    fun cancel() {
+        handler.removeCallbacks(connectRunnable)
+        lostAt = 0L
+        attempts = 0
+    }
+
+    @Suppress("ObjectLiteralToLambda")
+    private val connectRunnable = object : Runnable {
+        override fun run() = connect()
+    }
+
+    companion object {
+        private const val BASE_DELAY = 1000L
+        private const val MAX_SHIFT = 6
+        private const val MAX_DELAY = 60000L
+    }
+}
@@ -0,0 +1,74 @@
+package com.majeur.psclient.service
+
+/**
+ * Ring buffer holding the raw lines received for a room while no ui is attached, bounded by line
+ * count, total length and age. Once a line has been pushed out the backlog can't be replayed
+ * anymore and the room has to be joined again.
+ */
+class RoomBacklog(
+        private val maxLines: Int = MAX_LINES,
+        private val maxChars: Int = MAX_CHARS,
+        private val maxAge: Long = MAX_AGE
+) {
+
+    private val lines = arrayOfNulls<String>(maxLines)
+    private val times = LongArray(maxLines)
+    private var head = 0
+    private var chars = 0
+
+    var size = 0
+        private set
+
+    var overflowed = false
+        private set
+
+    fun add(line: String, now: Long) {
+        dropOlderThan(now - maxAge)
+        while (size > 0 && (size == maxLines || chars + line.length > maxChars)) dropOldest()
+        if (line.length > maxChars) {
+            overflowed = true
+            return
+        }
+        val index = (head + size) % maxLines
+        lines[index] = line
+        times[index] = now
+        chars += line.length
+        size++
+    }
+
+    fun isComplete(now: Long): Boolean {
+        dropOlderThan(now - maxAge)
+        return !overflowed
+    }
+
+    // Hands out buffered lines from the oldest one, returns false if some lines were lost
+    fun drain(now: Long, consumer: (String) -> Unit): Boolean {
+        dropOlderThan(now - maxAge)
+        val complete = !overflowed
+        while (size > 0) {
+            val line = lines[head]!!
+            dropOldest()
+            if (complete) consumer(line)
+        }
+        overflowed = false
+        return complete
+    }
+
+    private fun dropOlderThan(time: Long) {
+        while (size > 0 && times[head] < time) dropOldest()
+    }
+
+    private fun dropOldest() {
+        chars -= lines[head]!!.length
+        lines[head] = null
+        head = (head + 1) % maxLines
+        size--
+        overflowed = true
+    }
+
+    companion object {
+        private const val MAX_LINES = 1024
+        private const val MAX_CHARS = 256 * 1024
+        private const val MAX_AGE = 10 * 60 * 1000L
+    }
+}
@@ -0,0 +1,91 @@
+package com.majeur.psclient.service
+
+import com.majeur.psclient.service.observer.BattleRoomMessageObserver
+import com.majeur.psclient.service.observer.ChatRoomMessageObserver
+import com.majeur.psclient.service.observer.RoomMessageObserver
+
+/**
+ * Holds one observer per joined room, messages are routed to them with a single lookup by room id.
+ * Only the chat room and the battle shown by the ui are in foreground, other rooms are kept in
+ * background where they only update their model.
+ */
+class RoomRegistry(private val service: ShowdownService) {
+
+    private val rooms = HashMap<String, RoomMessageObserver<*>>()
+
+    // Foreground observers, ui callbacks are moved from one to another when switching rooms
+    var chatObserver = ChatRoomMessageObserver(service)
+        private set
+    var battleObserver = BattleRoomMessageObserver(service)
+        private set
+
+    val roomIds: Set<String> get() = rooms.keys
+
+    operator fun get(roomId: String) = rooms[roomId]
+
+    operator fun contains(roomId: String) = rooms.containsKey(roomId)
+
+    fun onRoomInit(roomId: String, type: String) {
+        if (rooms.containsKey(roomId)) return
+        val observer = if (type == "battle") BattleRoomMessageObserver(service) else ChatRoomMessageObserver(service)
+        observer.observedRoomId = roomId
+        observer.isBackground = true
+        rooms[roomId] = observer
+    }
+
+    fun onRoomDeinit(roomId: String) {
+        rooms.remove(roomId)
+        // Ui usually did it already
+        if (chatObserver.observedRoomId == roomId) showChatRoom(null)
+        if (battleObserver.observedRoomId == roomId) showBattleRoom(null)
+    }
+
+    fun showChatRoom(roomId: String?) {
+        val previous = chatObserver
+        if (previous.observedRoomId == roomId) return restoreIfJoined(previous)
+        val next = roomId?.let { rooms[it] as? ChatRoomMessageObserver } ?: ChatRoomMessageObserver(service)
+        chatObserver = next
+        bringToFront(previous, next, roomId)
+    }
+
+    fun showBattleRoom(roomId: String?) {
+        val previous = battleObserver
+        if (previous.observedRoomId == roomId) return restoreIfJoined(previous)
+        val next = roomId?.let { rooms[it] as? BattleRoomMessageObserver } ?: BattleRoomMessageObserver(service)
+        battleObserver = next
+        bringToFront(previous, next, roomId)
+    }
+
+    // A new ui can be attached to the room we already had in front
+    private fun restoreIfJoined(observer: RoomMessageObserver<*>) {
+        if (observer.observedRoomId != null && observer.roomJoined) observer.restoreUiState()
+    }
+
+    private fun <C : RoomMessageObserver.UiCallbacks> bringToFront(previous: RoomMessageObserver<C>,
+                                                                   next: RoomMessageObserver<C>, roomId: String?) {
+        val uiCallbacks = previous.uiCallbacks
+        val previousRoomId = previous.observedRoomId
+        if (roomId == null || previousRoomId == null || !previous.roomJoined) {
+            // Nothing worth keeping, this will also deinit the ui
+            if (previousRoomId != null) rooms.remove(previousRoomId)
+            previous.observedRoomId = null
+            previous.uiCallbacks = null
+        } else {
+            previous.uiCallbacks = null
+            previous.isBackground = true
+        }
+
+        if (roomId != null && next.observedRoomId == null) {
+            next.observedRoomId = roomId
+            rooms[roomId] = next
+        }
+        next.isBackground = false
+        next.uiCallbacks = uiCallbacks
+        if (next.roomJoined) next.restoreUiState()
+    }
+
+    // Server forgets about our rooms when the connection is lost, foreground rooms are reset by the ui
+    fun clearBackgroundRooms() {
+        rooms.values.removeAll { it.isBackground }
+    }
+}
@@ -5,10 +5,12 @@ import android.content.Context
 import android.content.Intent
 import android.os.Handler
 import android.os.Looper
+import android.os.SystemClock
 import android.util.Base64
+import com.majeur.psclient.PSClient
 import com.majeur.psclient.service.observer.BattleRoomMessageObserver
-import com.majeur.psclient.service.observer.ChatRoomMessageObserver
 import com.majeur.psclient.service.observer.GlobalMessageObserver
+import com.majeur.psclient.util.UsernameColors
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import okhttp3.*
@@ -35,14 +37,30 @@ class ShowdownService : Service() {
     private lateinit var uiHandler: Handler
 
     val globalMessageObserver by lazy { GlobalMessageObserver(this) }
-    val chatMessageObserver by lazy { ChatRoomMessageObserver(this) }
-    val battleMessageObserver by lazy { BattleRoomMessageObserver(this) }
-    private val messageObservers get() = listOf(globalMessageObserver, chatMessageObserver, battleMessageObserver)
-    private var previousChatRoomId: String? = null
-    private var previousBattleRoomId: String? = null
+    val rooms by lazy { RoomRegistry(this) }
+    val chatMessageObserver get() = rooms.chatObserver
+    val battleMessageObserver get() = rooms.battleObserver
+    private val backlogs = HashMap<String, RoomBacklog>()
+    private var uiDetached = false
 
     val replayManager by lazy { ReplayManager(this) }
 
+    private val commandQueue by lazy { CommandQueue(Looper.getMainLooper(), this::writeMessage) }
+    private val reconnector by lazy { Reconnector(Looper.getMainLooper(), this::connectToServer) }
+    private var closingIntentionally = false
+    private var resumeRoomIds = emptyList<String>()
+
+    // Time spent offline for each automatic reconnection
+    val reconnectLatencies get() = reconnector.latencies
+
+    // Probes count against the server throttle like any other message
+    internal val latencyProbe by lazy {
+        LatencyProbe(Looper.getMainLooper(), this::sendMessage, this::onConnectionStalled)
+    }
+
+    // Round trip times to the server, current one is rtt.last
+    val rtt get() = latencyProbe.rtt
+
     private val sharedData = mutableMapOf<String, Any?>()
     private var webSocket: WebSocket? = null
     private var _connected = AtomicBoolean(false)
@@ -61,8 +79,7 @@ class ShowdownService : Service() {
         super.onCreate()
         uiHandler = Handler(Looper.getMainLooper())
         binder = Binder()
-        okHttpClient = OkHttpClient.Builder()
-                .build()
+        okHttpClient = (application as PSClient).okHttpClient
     }
 
     override fun onBind(intent: Intent): Binder {
@@ -74,21 +91,16 @@ class ShowdownService : Service() {
     override fun onRebind(intent: Intent?) {
         Timber.d("(${hashCode()}) Lifecycle: onRebind")
         super.onRebind(intent)
-        // We try to rejoin previously leaved rooms
-        if (previousBattleRoomId != null)
-            sendGlobalCommand("join", previousBattleRoomId!!)
-        if (previousChatRoomId != null)
-            sendGlobalCommand("join", previousChatRoomId!!)
         uiHandler.removeCallbacks(stopSelfRunnable)
     }
 
     override fun onUnbind(intent: Intent): Boolean {
         Timber.d("(${hashCode()}) Lifecycle: onUnbind")
-        // If no activity is bound we leave every room we were into and keep their ids to rejoin them on next bind
-        previousBattleRoomId = battleMessageObserver.observedRoomId
-        if (previousBattleRoomId != null) sendRoomCommand(previousBattleRoomId, "leave")
-        previousChatRoomId = chatMessageObserver.observedRoomId
-        if (previousChatRoomId != null) sendRoomCommand(previousChatRoomId, "leave")
+        // If no activity is bound we stay in our rooms and buffer what we receive for them until the
+        // ui comes back, see restoreRooms()
+        uiDetached = true
+        // Process may well be killed from now on, without onDestroy() being called
+        UsernameColors.flush()
         // We stop our service (and close our WS connection) after 30 seconds with no activity bound
         uiHandler.postDelayed(stopSelfRunnable, 30000)
         return true
@@ -97,11 +109,17 @@ class ShowdownService : Service() {
     override fun onDestroy() {
         Timber.d("(${hashCode()}) Lifecycle: onDestroy")
         super.onDestroy()
+        closingIntentionally = true
+        reconnector.cancel()
+        latencyProbe.stop()
+        commandQueue.clear()
         if (isConnected) webSocket?.close(WS_CLOSE_GOING_AWAY, null)
+        UsernameColors.flush()
     }
 
     fun connectToServer() {
-        if (isConnected) return
+        if (isConnected || webSocket != null) return // Connected or connecting
+        closingIntentionally = false
         Timber.d("Attempting to open WS connection.")
         val request = Request.Builder().url(SHOWDOWN_SOCKET_URL).build()
         webSocket = okHttpClient.newWebSocket(request, webSocketListener)
@@ -109,13 +127,17 @@ class ShowdownService : Service() {
 
     fun reconnectToServer() {
         if (isConnected) return
-        connectToServer()
+        reconnector.reconnectNow()
     }
 
     fun disconnectFromServer() {
+        reconnector.cancel()
+        resumeRoomIds = emptyList()
         if (!isConnected) return
+        closingIntentionally = true
         Timber.d("Attempting to close WS connection.")
         webSocket?.close(WS_CLOSE_NORMAL, "Normal closure")
+        commandQueue.clear()
         sharedData.clear()
     }
 
@@ -131,13 +153,13 @@ class ShowdownService : Service() {
 
     fun sendRoomMessage(roomId: String?, message: String) = sendMessage("${roomId ?: ""}|$message")
 
-    private fun sendMessage(message: String) {
-        if (isConnected) {
-            Timber.tag("WebSocket[SEND]").i(message)
-            webSocket?.send(message)
-        } else {
-            Timber.w("WebSocket not opened. Ignoring message: $message")
-        }
+    private fun sendMessage(message: String) = commandQueue.enqueue(message)
+
+    private fun writeMessage(message: String): Boolean {
+        val webSocket = webSocket
+        if (!isConnected || webSocket == null) return false
+        Timber.tag("WebSocket[SEND]").i(message)
+        return webSocket.send(message).also { if (it) latencyProbe.onWritten(message) }
     }
 
     fun processServerData(data: String) {
@@ -147,33 +169,72 @@ class ShowdownService : Service() {
     }
 
     private fun dispatchServerData(roomId: String?, data: String) {
+        // Lobby data is not prefixed with its room id and keeps being dispatched, as well as replays
+        // which are fed locally
+        if (uiDetached && roomId != null && rooms.contains(roomId) && !roomId.startsWith("replay-")) {
+            val backlog = backlogs.getOrPut(roomId) { RoomBacklog() }
+            val now = SystemClock.elapsedRealtime()
+            data.split("\n")
+                    .filter { it.isNotBlank() }
+                    .forEach { backlog.add(it, now) }
+            return
+        }
         data.split("\n")
                 .filter { it.isNotBlank() }
                 .forEach { dispatchMessage(ServerMessage(roomId ?: "lobby", it)) }
     }
 
     private fun dispatchMessage(msg: ServerMessage) {
-        val observers = messageObservers
-        val observersInterceptingBefore = observers
-                .filter { it.interceptCommandBefore.contains(msg.command) }
-        val observersInterceptingAfter = observers
-                .filter { it.interceptCommandAfter.contains(msg.command) }
-
-        observersInterceptingBefore
-                .forEach { it.postMessage(msg, forcePost = true) }
-        observers
-                .minus(observersInterceptingBefore)
-                .forEach { it.postMessage(msg) }
-        observersInterceptingAfter
-                .minus(observersInterceptingBefore)
-                .forEach { it.postMessage(msg, forcePost = true) }
+        if (msg.command == "init") rooms.onRoomInit(msg.roomId, msg.args.firstOrNull().orEmpty())
+
+        val globalObserver = globalMessageObserver
+        val interceptingBefore = globalObserver.interceptCommandBefore.contains(msg.command)
+        globalObserver.postMessage(msg, forcePost = interceptingBefore)
+        rooms[msg.roomId]?.postMessage(msg)
+        if (!interceptingBefore && globalObserver.interceptCommandAfter.contains(msg.command))
+            globalObserver.postMessage(msg, forcePost = true)
+
+        if (msg.command == "deinit") rooms.onRoomDeinit(msg.roomId)
+    }
+
+    // Called when the ui binds back to us, rooms we stayed in are handed back to it
+    internal fun onUiAttached() {
+        if (!uiDetached) return
+        uiDetached = false
+        // Let every fragment attach its ui callbacks first
+        uiHandler.post { restoreRooms() }
+    }
+
+    private fun restoreRooms() {
+        val now = SystemClock.elapsedRealtime()
+        // Foreground rooms come first so they get shown again
+        val roomIds = (listOfNotNull(battleMessageObserver.observedRoomId, chatMessageObserver.observedRoomId)
+                + rooms.roomIds).distinct()
+        for (roomId in roomIds) {
+            val observer = rooms[roomId] ?: continue
+            val backlog = backlogs.remove(roomId)
+            if (backlog?.isComplete(now) == false) {
+                // Some lines were lost, the server has to send us the whole room again
+                sendRoomCommand(roomId, "leave")
+                sendGlobalCommand("join", roomId)
+                continue
+            }
+            globalMessageObserver.onRoomInit(roomId, if (observer is BattleRoomMessageObserver) "battle" else "chat")
+            backlog?.drain(now) { dispatchMessage(ServerMessage(roomId, it)) }
+        }
+        backlogs.clear()
     }
 
     private val webSocketListener = object : WebSocketListener() {
         override fun onOpen(webSocket: WebSocket, response: Response) {
             Timber.tag("WebSocket[OPEN]").i("Host: ${response.request().url().host()}")
             isConnected = true
+            commandQueue.onConnected()
             uiHandler.post {
+                reconnector.onConnected()
+                latencyProbe.start()
+                rooms.clearBackgroundRooms()
+                backlogs.clear()
                 dispatchMessage(ServerMessage("lobby", "|connected|"))
             }
         }
@@ -191,52 +252,89 @@ class ShowdownService : Service() {
 
         override fun onFailure(webSocket: WebSocket, t: Throwable, response: Response?) {
             Timber.tag("WebSocket[ERR]").w(t)
-            isConnected = false
-            this@ShowdownService.webSocket = null
-            uiHandler.post {
-                dispatchMessage(ServerMessage("lobby", "|networkerror|"))
-            }
+            onConnectionLost(webSocket)
         }
 
         override fun onClosed(webSocket: WebSocket, code: Int, reason: String) {
             Timber.tag("WebSocket[CLOSED]").i(reason)
-            isConnected = false
-            this@ShowdownService.webSocket = null
+            onConnectionLost(webSocket)
+        }
+    }
+
+    private fun onConnectionLost(webSocket: WebSocket) {
+        if (webSocket != this.webSocket) return // Already replaced
+        isConnected = false
+        this.webSocket = null
+        commandQueue.onDisconnected()
+        uiHandler.post {
+            latencyProbe.stop()
+            if (closingIntentionally) return@post
+            if (!reconnector.isReconnecting) {
+                // Server forgets about our rooms, we will join them again once signed in
+                resumeRoomIds = (listOfNotNull(battleMessageObserver.observedRoomId, chatMessageObserver.observedRoomId)
+                        + rooms.roomIds).filterNot { it.startsWith("replay-") }.distinct()
+            }
+            reconnector.onConnectionLost()
+            // Only notify ui once, next attempts are silent
+            if (reconnector.attempts == 1) dispatchMessage(ServerMessage("lobby", "|networkerror|"))
         }
     }
 
+    // Socket looks open but server stopped answering, dropping it leads to a reconnection
+    private fun onConnectionStalled() {
+        Timber.w("Connection stalled, dropping socket.")
+        webSocket?.cancel()
+    }
+
+    // Rooms are all joined at once, the command queue spreads them over the server's rate limit
+    internal fun resumeRooms() {
+        if (resumeRoomIds.isEmpty()) return
+        resumeRoomIds.forEach { sendGlobalCommand("join", it) }
+        resumeRoomIds = emptyList()
+    }
+
+    // Rooms we were in before a connection loss are joined again once we know who we are
     fun tryCookieSignIn() {
-        retrieveAuthCookieIfAny()?.let { cookie ->
-            val url = actionServerUrlWithChallenge
-                    .addQueryParameter("act", "upkeep")
-                    .build()
-            val request = Request.Builder()
-                    .url(url)
-                    .addHeader("cookie", cookie)
-                    .build()
-            okHttpClient.newCall(request).enqueue(object : Callback {
-                @Throws(IOException::class)
-                override fun onResponse(call: Call, response: Response) {
-                    val rawResponse = response.body()?.string()
-                    if (rawResponse?.isEmpty() != false) {
-                        Timber.e("Assertion request responded with an empty body.")
+        val cookie = retrieveAuthCookieIfAny()
+        if (cookie == null) {
+            resumeRooms()
+            return
+        }
+        val url = actionServerUrlWithChallenge
+                .addQueryParameter("act", "upkeep")
+                .build()
+        val request = Request.Builder()
+                .url(url)
+                .addHeader("cookie", cookie)
+                .build()
+        okHttpClient.newCall(request).enqueue(object : Callback {
+            @Throws(IOException::class)
+            override fun onResponse(call: Call, response: Response) {
+                val rawResponse = response.body()?.string()
+                if (rawResponse?.isEmpty() != false) {
+                    Timber.e("Assertion request responded with an empty body.")
+                    uiHandler.post { resumeRooms() }
+                    return
+                }
+                try {
+                    val resultJson = JSONObject(rawResponse.removePrefix("]"))
+                    if (resultJson.optBoolean("loggedin")) {
+                        // Rooms are resumed on the next named |updateuser|
+                        sendTrnMessage(resultJson.getString("username"),
+                                resultJson.getString("assertion"))
                         return
                     }
-                    try {
-                        val resultJson = JSONObject(rawResponse.removePrefix("]"))
-                        if (resultJson.optBoolean("loggedin"))
-                            sendTrnMessage(resultJson.getString("username"),
-                                    resultJson.getString("assertion"))
-                    } catch (e: JSONException) {
-                        Timber.e(e, "Error while parsing assertion json.")
-                    }
+                } catch (e: JSONException) {
+                    Timber.e(e, "Error while parsing assertion json.")
                 }
+                uiHandler.post { resumeRooms() }
+            }
 
-                override fun onFailure(call: Call, e: IOException) {
-                    Timber.e(e, "Call failed.")
-                }
-            })
-        }
+            override fun onFailure(call: Call, e: IOException) {
+                Timber.e(e, "Call failed.")
+                uiHandler.post { resumeRooms() }
+            }
+        })
     }
 
     fun attemptSignIn(username: String, callback: AttemptSignInCallback) {
@@ -1,10 +1,13 @@
 package com.majeur.psclient.service.observer
 
 import android.graphics.Color
+import android.graphics.drawable.Drawable
 import android.os.Looper
 import android.text.Spanned
 import androidx.core.text.getSpans
+import com.bumptech.glide.request.target.Target
 import com.majeur.psclient.io.BattleTextBuilder
+import com.majeur.psclient.io.GlideHelper
 import com.majeur.psclient.model.battle.*
 import com.majeur.psclient.model.common.Colors
 import com.majeur.psclient.model.pokemon.BasePokemon
@@ -30,6 +33,17 @@ class BattleRoomMessageObserver(service: ShowdownService)
     var battleRunning = false
         private set
 
+    // Nobody is watching background battles, their actions don't need to be spread over time
+    override var isBackground
+        get() = super.isBackground
+        set(value) {
+            super.isBackground = value
+            actionQueue.immediate = value
+        }
+
+    private var battleStarted = false
+    private var battleWinner = ""
+
     var gen = 0
 
     private val battleTextBuilder = BattleTextBuilder(service)
@@ -45,6 +59,10 @@ class BattleRoomMessageObserver(service: ShowdownService)
     private val activeFieldEffects = mutableListOf<String>()
     private var lastMove: String? = null
 
+    // Teams are revealed long before pokemons switch in, their sprites are fetched meanwhile
+    private val glideHelper by lazy { GlideHelper(service) }
+    private val prefetchedSprites = HashMap<String, List<Target<Drawable>>>()
+
     init {
         battleTextBuilder.setPokemonIdFactory { rawString: String ->
             try {
@@ -64,11 +82,13 @@ class BattleRoomMessageObserver(service: ShowdownService)
         gameType = null
         actionQueue.clear()
         battleRunning = true
+        battleStarted = false
         previewPokemonIndexes[0] = 0
         previewPokemonIndexes[1] = 0
         lastDecisionRequest = null
         activeWeather = null
         activeFieldEffects.clear()
+        cancelSpritePrefetch()
 
         actionQueue.shouldLoopToLastTurn = !isReplay // Loops through each turn for replays
         actionQueue.enableLastActionInvoke = false // Prevent last action from being invoked before |start| or |teampreview|
@@ -81,13 +101,30 @@ class BattleRoomMessageObserver(service: ShowdownService)
         gameType = null
         actionQueue.clear()
         battleRunning = false
+        battleStarted = false
         previewPokemonIndexes = IntArray(2)
         activeWeather = null
         activeFieldEffects.clear()
+        cancelSpritePrefetch()
 
         actionQueue.shouldLoopToLastTurn = true // clear to default setting
     }
 
+    override fun restoreUiState() {
+        super.restoreUiState()
+        if (p1Username != null && p2Username != null)
+            onPlayerInit(Player.TRAINER.username(p1Username!!, p2Username!!, myUsername),
+                    Player.FOE.username(p1Username!!, p2Username!!, myUsername))
+        if (battleStarted) {
+            onBattleStarted()
+            trainerPokemons.forEach { it?.let(::onSwitch) }
+            foePokemons.forEach { it?.let(::onSwitch) }
+            onFieldEffectChanged(activeWeather ?: activeFieldEffects.lastOrNull())
+        }
+        if (battleStarted && !battleRunning) onBattleEnded(battleWinner)
+        actionQueue.startLoop() // Delivers a pending decision request if any
+    }
+
     private fun getPlayer(rawId: String) = Player.get(rawId, p1Username, p2Username, myUsername)
 
     private fun getPokemonId(rawId: String) = PokemonId(getPlayer(rawId), rawId)
@@ -139,9 +176,9 @@ class BattleRoomMessageObserver(service: ShowdownService)
         "faint" -> handleFaint(message)
         "teamsize" -> handleTeamSize(message)
         "gametype" -> handleGameType(message)
-        "tier" -> printMessage(message.nextArg.bold())
-        "rated" -> printMessage("Rated battle".tag(Color.GRAY))
-        "rule" -> printMessage(message.nextArg.italic())
+        "tier" -> printMessage(buildSpanned { bold(message.nextArg) })
+        "rated" -> printMessage(buildSpanned { tag(Color.GRAY, "Rated battle") })
+        "rule" -> printMessage(buildSpanned { italic(message.nextArg) })
         "clearpoke" -> {
             previewPokemonIndexes[0] = 0
             previewPokemonIndexes[1] = 0
@@ -154,6 +191,7 @@ class BattleRoomMessageObserver(service: ShowdownService)
         }
         "start" -> {
             actionQueue.enableLastActionInvoke = true
+            battleStarted = true
             printMessage(battleTextBuilder.start(p1Username, p2Username))
             onBattleStarted()
         }
@@ -286,7 +324,7 @@ class BattleRoomMessageObserver(service: ShowdownService)
     }
 
     private fun handleTurn(msg: ServerMessage) {
-        val text = "\n" concat " — Turn ${msg.nextArg} — ".bold().big()
+        val text = buildSpanned { append("\n").big { bold(" — Turn ${msg.nextArg} — ") } }
         actionQueue.enqueueTurnAction {
             // super prevents from queuing message print
             super@BattleRoomMessageObserver.printMessage(text)
@@ -300,6 +338,7 @@ class BattleRoomMessageObserver(service: ShowdownService)
             val jsonObject = JSONObject(rawJson)
             val request = BattleDecisionRequest(jsonObject, gameType)
             lastDecisionRequest = request
+            request.side.forEach { prefetchSprites(it, it.shiny) }
             actionQueue.setLastAction { onDecisionRequest(request) }
         } catch (e: JSONException) {
             Timber.e(e, "Error while parsing request json")
@@ -310,12 +349,25 @@ class BattleRoomMessageObserver(service: ShowdownService)
     private fun handlePreviewPokemon(msg: ServerMessage) {
         val player = getPlayer(msg.nextArg)
         val curIndex = previewPokemonIndexes[if (player == Player.FOE) 1 else 0]++
-        val species = msg.nextArg.split(",")[0]
+        val details = msg.nextArg
+        val species = details.substringBefore(',')
         val pokemon = BasePokemon().also { it.species = species }
         val hasItem = msg.hasNextArg
+        prefetchSprites(pokemon, details.contains(", shiny"))
         onAddPreviewPokemon(PokemonId(player, curIndex), pokemon, hasItem)
     }
 
+    private fun prefetchSprites(pokemon: BasePokemon, shiny: Boolean) {
+        val key = "${pokemon.spriteId}:$shiny"
+        if (pokemon.spriteId.isEmpty() || prefetchedSprites.containsKey(key)) return
+        prefetchedSprites[key] = glideHelper.prefetchBattleSprites(pokemon.spriteId, shiny)
+    }
+
+    private fun cancelSpritePrefetch() {
+        prefetchedSprites.values.forEach { targets -> targets.forEach(glideHelper::clear) }
+        prefetchedSprites.clear()
+    }
+
     private fun handleInactive(msg: ServerMessage, on: Boolean) {
         onTimerEnabled(on)
         val text = msg.nextArg
@@ -328,7 +380,8 @@ class BattleRoomMessageObserver(service: ShowdownService)
         val text = if (tie) battleTextBuilder.tie(p1Username, p2Username) else battleTextBuilder.win(username)
         actionQueue.enqueueAction {
             battleRunning = false
-            onBattleEnded(username.orEmpty())
+            battleWinner = username.orEmpty()
+            onBattleEnded(battleWinner)
             displayMajorActionMessage(text)
             actionQueue.setLastAction(null)
         }
@@ -820,7 +873,7 @@ class BattleRoomMessageObserver(service: ShowdownService)
 
     // This should be called only from action queue runnables
     private fun displayMajorActionMessage(text: CharSequence?) {
-        if (text == null) return
+        if (text == null || isBackground) return
         // Calling super to prevent queuing
         super.printMessage(text)
         onPrintBattleMessage(text)
@@ -828,18 +881,20 @@ class BattleRoomMessageObserver(service: ShowdownService)
 
     // This should be called only from action queue runnables
     private fun displayMinorActionMessage(text: CharSequence?) {
-        if (text == null) return
+        if (text == null || isBackground) return
         // Calling super to prevent queuing
-        super.printMessage(text.small())
-        onPrintBattleMessage(text.small())
+        val smallText = buildSpanned { small(text) }
+        super.printMessage(smallText)
+        onPrintBattleMessage(smallText)
     }
 
     private fun printInactiveText(text: String?) {
         if (text == null) return
-        printMessage(text.small().italic().color(-0x750000))
+        printMessage(buildSpanned { color(-0x750000) { italic { small(text) } } })
     }
 
     override fun printMessage(text: CharSequence) {
+        if (isBackground) return
         // Include eventual message prints from super class in the action queue.
         if (!isReplay && actionQueue.isLooping && text is Spanned && text.getSpans<UsernameSpan>(0, text.length).isNotEmpty()) {
             // Instantly add chat messages
@@ -850,6 +905,7 @@ class BattleRoomMessageObserver(service: ShowdownService)
     }
 
     override fun printHtml(html: String) {
+        if (isBackground) return
         // Include eventual html prints from super class in the action queue.
         actionQueue.enqueueAction { super@BattleRoomMessageObserver.printHtml(html) }
     }
@@ -26,6 +26,7 @@ class GlobalMessageObserver(service: ShowdownService)
     private val privateMessages = mutableMapOf<String, MutableList<String>>()
 
     override fun onUiCallbacksAttached() {
+        service.onUiAttached()
         // If we did not stored at least username, we will not have anything else
         val username = service.getSharedData<String>("myusername") ?: return
 
@@ -86,6 +87,7 @@ class GlobalMessageObserver(service: ShowdownService)
         avatar = "000$avatar".substring(avatar.length)
         isUserGuest = isGuest
         onUserChanged(username, isGuest, avatar)
+        if (!isGuest) service.resumeRooms()
 
         // Update server counts (active battle and active users)
         requestServerCountsOnly = true
@@ -97,6 +99,7 @@ class GlobalMessageObserver(service: ShowdownService)
     private fun processQueryResponse(msg: ServerMessage) {
         val query = msg.nextArg
         val queryResponse = msg.remainingArgsRaw
+        if (service.latencyProbe.onQueryResponse(query, queryResponse)) return
         when (query) {
             "rooms" -> processRoomsQueryResponse(queryResponse)
             "roomlist" -> processRoomListQueryResponse(queryResponse)
@@ -2,8 +2,11 @@ package com.majeur.psclient.service.observer
 
 import android.graphics.Color
 import android.text.Spannable
+import android.text.SpannableStringBuilder
 import android.text.style.BackgroundColorSpan
 import android.text.style.ForegroundColorSpan
+import android.view.Choreographer
+import com.majeur.psclient.model.RoomUsers
 import com.majeur.psclient.service.ServerMessage
 import com.majeur.psclient.service.ShowdownService
 import com.majeur.psclient.util.*
@@ -15,47 +18,73 @@ abstract class RoomMessageObserver<C : RoomMessageObserver.UiCallbacks>(service:
     var roomJoined = false
         private set
 
-    private var currentUsers = mutableListOf<String>()
-    private val _usernameColorCache = mutableMapOf<String, Int>()
+    // Background rooms have no ui to feed, they only keep their model up to date
+    open var isBackground = false
+
+    private var roomTitle: String? = null
+
+    private val roomUsers = RoomUsers()
+    private var usersUpdatePending = false
+
+    // Joins and leaves can come in storms in big rooms, we notify ui at most once per frame
+    @Suppress("ObjectLiteralToLambda")
+    private val usersUpdateCallback = object : Choreographer.FrameCallback {
+        override fun doFrame(frameTimeNanos: Long) {
+            usersUpdatePending = false
+            onUpdateUsers(roomUsers)
+        }
+    }
 
     override var observedRoomId: String? = null
         set(value) {
             if (value == null && field != null) {
                 roomJoined = false
-                currentUsers.clear()
-                _usernameColorCache.clear()
+                roomTitle = null
+                clearUsers()
                 onRoomDeInit()
             }
             field = value
         }
 
     val users: List<String>
-        get() = currentUsers.toList()
+        get() = roomUsers.toList()
 
     override fun onUiCallbacksAttached() {
 
     }
 
+    // Brings a freshly attached ui up to date with a room that was followed in background
+    open fun restoreUiState() {
+        uiCallbacks?.onRoomInit()
+        roomTitle?.let { uiCallbacks?.onRoomTitleChanged(it) }
+        uiCallbacks?.onUpdateUsers(roomUsers)
+    }
+
     override fun onMessage(message: ServerMessage) {
         message.newArgsIteration()
         when (message.command) {
             "init" -> {
-                _usernameColorCache.clear()
                 roomJoined = true
                 onRoomInit()
             }
-            "title" -> onRoomTitleChanged(message.nextArg)
-            "users" -> initializeUserList(message)
+            "title" -> {
+                roomTitle = message.nextArg
+                onRoomTitleChanged(roomTitle!!)
+            }
+            "users" -> {
+                roomUsers.setAll(message.nextArg)
+                notifyUsersChanged()
+            }
             "J", "j", "join" -> {
                 val username = message.nextArg
-                currentUsers.add(username)
-                onUpdateUsers(currentUsers.toList())
+                roomUsers.add(username)
+                notifyUsersChanged()
                 if (message.command != "J") printUserRelatedMessage("$username joined")
             }
             "L", "l", "leave" -> {
                 val username = message.nextArg
-                currentUsers.remove(username)
-                onUpdateUsers(currentUsers.toList())
+                roomUsers.remove(username)
+                notifyUsersChanged()
                 if (message.command != "L") printUserRelatedMessage("$username left")
             }
             "html" -> { // printMessage("~html messages aren't supported yet~");
@@ -64,7 +93,7 @@ abstract class RoomMessageObserver<C : RoomMessageObserver.UiCallbacks>(service:
             }
             "uhtmlchange" -> { // TODO
             }
-            "N", "n", "name" -> if (message.command != "N") handleNameChange(message)
+            "N", "n", "name" -> handleNameChange(message)
             "c", "chat" -> handleChatMessage(message)
             "c:" -> {
                 message.nextArg // Skipping time stamp
@@ -76,17 +105,18 @@ abstract class RoomMessageObserver<C : RoomMessageObserver.UiCallbacks>(service:
                 val roomId = message.nextArg
                 val user1 = message.nextArg
                 val user2 = message.nextArg
-                if (message.command != "B") printMessage("A battle started between $user1 and $user2 (in room $roomId)")
+                if (message.command != "B" && !isBackground) printMessage("A battle started between $user1 and $user2 (in room $roomId)")
             }
             "error" -> printErrorMessage(message.nextArg)
             "raw" -> {
+                if (isBackground) return
                 val html = message.remainingArgsRaw
                 printHtml(Utils.prepareForHtml(html))
             }
             "deinit" -> {
                 roomJoined = false
-                currentUsers.clear()
-                _usernameColorCache.clear()
+                roomTitle = null
+                clearUsers()
                 onRoomDeInit()
             }
             "noinit" -> { // TODO
@@ -94,22 +124,28 @@ abstract class RoomMessageObserver<C : RoomMessageObserver.UiCallbacks>(service:
         }
     }
 
-    private fun initializeUserList(args: ServerMessage) {
-        val rawUsers = args.nextArg // first element is total user count, skipping it
-        currentUsers.clear()
-        // first element is total user count, skipping it
-        // we substring names from 1 to avoid prefixes
-        currentUsers.addAll(rawUsers.split(',').drop(1).map { it.substring(1) })
-        onUpdateUsers(currentUsers.toList())
+    private fun notifyUsersChanged() {
+        if (usersUpdatePending || isBackground) return
+        usersUpdatePending = true
+        Choreographer.getInstance().postFrameCallback(usersUpdateCallback)
+    }
+
+    private fun clearUsers() {
+        roomUsers.clear()
+        if (usersUpdatePending) Choreographer.getInstance().removeFrameCallback(usersUpdateCallback)
+        usersUpdatePending = false
     }
 
     private fun handleNameChange(args: ServerMessage) {
         val user = args.nextArg
         val oldName = args.nextArg
-        printUserRelatedMessage("User $oldName changed its name and is now $user")
+        roomUsers.rename(user, oldName.toId())
+        notifyUsersChanged()
+        if (args.command != "N") printUserRelatedMessage("User $oldName changed its name and is now $user")
     }
 
     private fun handleChatMessage(args: ServerMessage) {
+        if (isBackground) return
         val userWithPrefix = args.nextArg
         val user = userWithPrefix.removePrefix(" ")
         var userMessage = args.remainingArgsRaw
@@ -126,10 +162,10 @@ abstract class RoomMessageObserver<C : RoomMessageObserver.UiCallbacks>(service:
                 val announce = userMessage.startsWith("/announce")
                 if (announce) userMessage = userMessage.removePrefix("/announce ")
 
-                val spannable = SpannableStringBuilder("$user: ${Utils.specChars(userMessage)}")
+                val spannable = SpannableStringBuilder(user).append(": ")
                 spannable.setSpan(TextTagSpan(getHashColor(userWithPrefix)), 0, user.length + 1, Spannable.SPAN_INCLUSIVE_EXCLUSIVE)
                 spannable.setSpan(UsernameSpan(user), 0, user.length + 1, Spannable.SPAN_EXCLUSIVE_EXCLUSIVE)
-                Utils.applyStylingTags(spannable)
+                ChatFormatter.append(spannable, userMessage)
                 if (announce) {
                     spannable.setSpan(BackgroundColorSpan(Color.parseColor("#678CB1")),
                             user.length + 2, spannable.length, Spannable.SPAN_INCLUSIVE_EXCLUSIVE)
@@ -141,9 +177,10 @@ abstract class RoomMessageObserver<C : RoomMessageObserver.UiCallbacks>(service:
         }
     }
 
-    private fun getHashColor(username: String) = _usernameColorCache.getOrPut(username) { Utils.hashColor(username.toId()) }
+    private fun getHashColor(username: String) = UsernameColors.get(username)
 
     private fun printUserRelatedMessage(message: String) {
+        if (isBackground) return
         printMessage(message.italic().color(-0xbdbdbe).small())
     }
 
@@ -157,7 +194,7 @@ abstract class RoomMessageObserver<C : RoomMessageObserver.UiCallbacks>(service:
 
     protected open fun onRoomInit() = uiCallbacks?.onRoomInit()
     protected open fun onRoomTitleChanged(title: String) = uiCallbacks?.onRoomTitleChanged(title)
-    protected open fun onUpdateUsers(users: List<String>) = uiCallbacks?.onUpdateUsers(users)
+    protected open fun onUpdateUsers(users: RoomUsers) = uiCallbacks?.onUpdateUsers(users)
     protected open fun onPrintText(text: CharSequence) = uiCallbacks?.onPrintText(text)
     protected open fun onPrintHtml(html: String) = uiCallbacks?.onPrintHtml(html)
     protected open fun onRoomDeInit() = uiCallbacks?.onRoomDeInit()
@@ -165,7 +202,7 @@ abstract class RoomMessageObserver<C : RoomMessageObserver.UiCallbacks>(service:
     interface UiCallbacks : AbsMessageObserver.UiCallbacks {
         fun onRoomInit()
         fun onRoomTitleChanged(title: String)
-        fun onUpdateUsers(users: List<String>)
+        fun onUpdateUsers(users: RoomUsers)
         fun onPrintText(text: CharSequence)
         fun onPrintHtml(html: String)
         fun onRoomDeInit()
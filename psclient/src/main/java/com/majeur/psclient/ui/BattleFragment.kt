@@ -26,11 +26,13 @@ import com.majeur.psclient.io.AssetLoader
 import com.majeur.psclient.io.BattleAudioManager
 import com.majeur.psclient.io.GlideHelper
 import com.majeur.psclient.model.battle.*
+import com.majeur.psclient.model.RoomUsers
 import com.majeur.psclient.model.common.Colors
 import com.majeur.psclient.model.common.Colors.healthColor
 import com.majeur.psclient.model.common.Colors.statusColor
 import com.majeur.psclient.model.common.Stats
 import com.majeur.psclient.model.common.Type
+import com.majeur.psclient.model.common.TypeChart
 import com.majeur.psclient.model.pokemon.BasePokemon
 import com.majeur.psclient.model.pokemon.BattlingPokemon
 import com.majeur.psclient.model.pokemon.SidePokemon
@@ -56,6 +58,7 @@ class BattleFragment : BaseFragment(), BattleRoomMessageObserver.UiCallbacks, Vi
 
     private lateinit var battleTipPopup: BattleTipPopup
     private var lastDecisionRequest: BattleDecisionRequest? = null
+    private val damageCalculator = DamageCalculator()
     private var timerEnabled = false
     private var soundEnabled = false
     private var wasPlayingBattleMusicWhenPaused = false
@@ -68,7 +71,7 @@ class BattleFragment : BaseFragment(), BattleRoomMessageObserver.UiCallbacks, Vi
         get() = _observedRoomId
         set(observedRoomId) {
             _observedRoomId = observedRoomId
-            observer.observedRoomId = observedRoomId
+            service!!.rooms.showBattleRoom(observedRoomId)
         }
 
     val battleRunning get() = observer.battleRunning
@@ -147,6 +150,7 @@ class BattleFragment : BaseFragment(), BattleRoomMessageObserver.UiCallbacks, Vi
         // Do a isResumed check, because this method gets triggered on activity start, and
         // battleType is not yet available at that point
         if (super.isResumed() && hidden && observer.isReplay) pauseReplay()
+        _binding?.battleLayout?.setSpritesVisible(!hidden)
     }
 
     override fun onServiceBound(service: ShowdownService) {
@@ -305,38 +309,43 @@ class BattleFragment : BaseFragment(), BattleRoomMessageObserver.UiCallbacks, Vi
         placeHolderTop.setImageDrawable(null)
         placeHolderBottom.setImageDrawable(null)
 
-        titleView.apply {
-            text = pokemon.name concat " " concat pokemon.gender.small() concat " l." concat pokemon.level.toString()
+        titleView.text = buildSpanned {
+            append(pokemon.name).append(" ").small(pokemon.gender).append(" l.").append(pokemon.level)
         }
 
-        descView.apply {
-            text = if (pokemon.species != pokemon.name) "${pokemon.species}\n" else ""
+        var ability: String? = null
+        val sidePokemon = if (pokemon.trainer) lastDecisionRequest?.side?.getOrNull(pokemon.position) else null
+        descView.setText(buildSpanned {
+            if (pokemon.species != pokemon.name) append(pokemon.species).append("\n")
 
             pokemon.condition?.let { condition ->
-                append("HP: ".small())
-                append("%.1f%% ".format(condition.health * 100).bold().color(healthColor(condition.health)))
-                if (pokemon.trainer && observer.isUserPlaying) append("(${condition.hp}/${condition.maxHp}) ".small())
-                condition.status?.let { append(it.toUpperCase().small().tag(statusColor(it))) }
+                small("HP: ")
+                color(healthColor(condition.health)) { bold("%.1f%% ".format(condition.health * 100)) }
+                if (pokemon.trainer && observer.isUserPlaying) small("(${condition.hp}/${condition.maxHp}) ")
+                condition.status?.let { tag(statusColor(it)) { small(it.toUpperCase()) } }
                 append("\n")
             }
 
-            var ability: String? = null
-            if (pokemon.trainer && lastDecisionRequest?.side != null) {
-                val sidePokemon = lastDecisionRequest!!.side[pokemon.position]
+            if (sidePokemon != null) {
                 if (pokemon.transformSpecies == null) { // Ditto case
                     pokemon.statModifiers.apply {
-                        append("Atk:".small() concat calcReadableStat("atk", sidePokemon.stats.atk) concat
-                                " Def:".small() concat calcReadableStat("def", sidePokemon.stats.def) concat
-                                " Spa:".small() concat calcReadableStat("spa", sidePokemon.stats.spa) concat
-                                " Spd:".small() concat calcReadableStat("spd", sidePokemon.stats.spd) concat
-                                " Spe:".small() concat calcReadableStat("spe", sidePokemon.stats.spe) concat
-                                "\n")
+                        small("Atk:").append(calcReadableStat("atk", sidePokemon.stats.atk))
+                        small(" Def:").append(calcReadableStat("def", sidePokemon.stats.def))
+                        small(" Spa:").append(calcReadableStat("spa", sidePokemon.stats.spa))
+                        small(" Spd:").append(calcReadableStat("spd", sidePokemon.stats.spd))
+                        small(" Spe:").append(calcReadableStat("spe", sidePokemon.stats.spe))
+                        append("\n")
                     }
                 }
-                append("Ability: ".small() concat sidePokemon.ability concat "\n")
+                small("Ability: ").append(sidePokemon.ability).append("\n")
                 ability = sidePokemon.ability
 
-                append("Item: ".small() concat sidePokemon.item.or("None"))
+                small("Item: ").append(sidePokemon.item.or("None"))
+            }
+        }, TextView.BufferType.EDITABLE)
+
+        descView.apply {
+            if (sidePokemon != null) {
                 fragmentScope.launch {
                     assetLoader.item(sidePokemon.item.toId())?.let { item ->
                         Utils.replace(descView.editableText, sidePokemon.item, item.name)
@@ -361,17 +370,20 @@ class BattleFragment : BaseFragment(), BattleRoomMessageObserver.UiCallbacks, Vi
                     return@launch
                 }
 
-                if (dexPokemon.abilities.isNotEmpty() && dexPokemon.hiddenAbility != null) {
-                    append("Possible abilities: ".small())
-                    append(dexPokemon.abilities.plus(dexPokemon.hiddenAbility).joinToString(", "))
-                    append("\n")
-                } else {
-                    append("Ability: ".small())
-                    append(dexPokemon.hiddenAbility ?: dexPokemon.abilities.firstOrNull() ?: "none")
-                    append("\n")
-                }
                 val speedRange = Stats.calculateSpeedRange(pokemon.level, dexPokemon.baseStats.spe, "Random Battle", observer.gen)
-                append("Speed: ".small() concat "${speedRange[0]} to ${speedRange[1]}" concat " (before items/abilities/modifiers)".small())
+                append(buildSpanned {
+                    if (dexPokemon.abilities.isNotEmpty() && dexPokemon.hiddenAbility != null) {
+                        small("Possible abilities: ")
+                        append(dexPokemon.abilities.plus(dexPokemon.hiddenAbility).joinToString(", "))
+                        append("\n")
+                    } else {
+                        small("Ability: ")
+                        append(dexPokemon.hiddenAbility ?: dexPokemon.abilities.firstOrNull() ?: "none")
+                        append("\n")
+                    }
+                    small("Speed: ").append("${speedRange[0]} to ${speedRange[1]}")
+                    small(" (before items/abilities/modifiers)")
+                })
             }
         }
     }
@@ -383,36 +395,36 @@ class BattleFragment : BaseFragment(), BattleRoomMessageObserver.UiCallbacks, Vi
         if (move.zflag) moveName = move.zName
         if (moveName == null) moveName = move.name
         titleView.text = moveName
-        descView.text = ""
         var priority = -20
         if (move.maxflag) priority = move.maxDetails?.priority ?: 0
         if (move.zflag) priority = move.zDetails?.priority ?: 0
         if (priority == -20) priority = move.details?.priority ?: 0
-        when {
-            priority > 1 -> descView.append("Nearly always moves first (" concat priority.toSignedString().italic() concat ")\n")
-            priority <= -1 -> descView.append("Nearly always moves last (" concat priority.toSignedString().italic() concat ")\n")
-            priority == 1 -> descView.append("Usually moves first (" concat priority.toSignedString().italic() concat ")\n")
-        }
-
         var basePower = -1
         if (move.maxflag) basePower = move.details?.maxPower ?: 0
         if (move.zflag) basePower = move.zDetails?.basePower ?: move.details?.zPower ?: 0
         if (basePower == -1) basePower = move.details?.basePower ?: 0
-        if (basePower > 0) descView.append("Base power: $basePower\n")
         var accuracy = -20
         if (move.maxflag) accuracy = move.maxDetails?.accuracy ?: 0
         if (move.zflag) accuracy = 0
         if (accuracy == -20) accuracy = move.details?.accuracy ?: 0
-        if (accuracy != 0) {
-            descView.append("Accuracy: ")
-            if (accuracy == -1) descView.append("can't miss") else descView.append(accuracy.toString())
-            descView.append("\n")
-        }
         var desc: String? = null
         if (move.maxflag) desc = move.maxDetails?.desc ?: ""
         if (move.zflag) desc = move.zDetails?.desc ?: move.details?.zEffect?.let { "Z-Effect: $it" } ?: ""
         if (desc == null) desc = move.details?.desc ?: ""
-        if (desc.isNotBlank()) descView.append(desc.italic())
+        descView.text = buildSpanned {
+            when {
+                priority > 1 -> append("Nearly always moves first (").italic(priority.toSignedString()).append(")\n")
+                priority <= -1 -> append("Nearly always moves last (").italic(priority.toSignedString()).append(")\n")
+                priority == 1 -> append("Usually moves first (").italic(priority.toSignedString()).append(")\n")
+            }
+            if (basePower > 0) append("Base power: $basePower\n")
+            if (accuracy != 0) {
+                append("Accuracy: ")
+                if (accuracy == -1) append("can't miss") else append(accuracy)
+                append("\n")
+            }
+            if (desc.isNotBlank()) italic(desc)
+        }
         var type: String? = null
         if (move.maxflag) type = move.maxDetails?.type ?: "???"
         if (type == null) type = move.details?.type ?: "???"
@@ -425,23 +437,22 @@ class BattleFragment : BaseFragment(), BattleRoomMessageObserver.UiCallbacks, Vi
     private fun bindSidePokemonPopup(pokemon: SidePokemon, titleView: TextView,
                                      descView: TextView, placeHolderTop: ImageView, placeHolderBottom: ImageView) {
         titleView.text = pokemon.name
-        descView.apply {
-            text = "HP: ".small() concat String.format("%.1f%% ", pokemon.condition.health * 100).bold().color(healthColor(pokemon.condition.health)) concat
-                    "(" + pokemon.condition.hp + "/" + pokemon.condition.maxHp + ")"
-            if (pokemon.condition.status != null)
-                append(pokemon.condition.status!!.toUpperCase().small().tag(statusColor(pokemon.condition.status)))
-
-            append("\n" concat
-                    "Atk:".small() concat pokemon.stats.atk.toString() concat
-                    " Def:".small() concat pokemon.stats.def.toString() concat
-                    " Spa:".small() concat pokemon.stats.spa.toString() concat
-                    " Spd:".small() concat pokemon.stats.spd.toString() concat
-                    " Spe:".small() concat pokemon.stats.spe.toString() concat
-                    "\n" concat
-                    "Ability: ".small() concat pokemon.ability concat "\n" concat
-                    "Item: ".small() concat pokemon.item.or("None") concat "\n" concat
-                    "Moves: ".small())
-        }
+        descView.setText(buildSpanned {
+            small("HP: ")
+            color(healthColor(pokemon.condition.health)) { bold(String.format("%.1f%% ", pokemon.condition.health * 100)) }
+            append("(").append(pokemon.condition.hp).append("/").append(pokemon.condition.maxHp).append(")")
+            pokemon.condition.status?.let { tag(statusColor(it)) { small(it.toUpperCase()) } }
+            append("\n")
+            small("Atk:").append(pokemon.stats.atk)
+            small(" Def:").append(pokemon.stats.def)
+            small(" Spa:").append(pokemon.stats.spa)
+            small(" Spd:").append(pokemon.stats.spd)
+            small(" Spe:").append(pokemon.stats.spe)
+            append("\n")
+            small("Ability: ").append(pokemon.ability).append("\n")
+            small("Item: ").append(pokemon.item.or("None")).append("\n")
+            small("Moves: ")
+        }, TextView.BufferType.EDITABLE)
         fragmentScope.launch {
             assetLoader.movesDetails(*pokemon.moves.map { it.toId() }.toTypedArray()).forEachIndexed { index, details ->
                 descView.append("\n\t")
@@ -643,11 +654,56 @@ class BattleFragment : BaseFragment(), BattleRoomMessageObserver.UiCallbacks, Vi
             false
         } catch (e: IllegalStateException) {
             val msg = "A bug has occurred, please try to rejoin the battle. Click this message to leave it without forfeiting."
-            onPrintText(msg.color(Colors.RED).clickable { service?.sendRoomCommand(observedRoomId, "leave") })
+            onPrintText(buildSpanned {
+                clickable({ service?.sendRoomCommand(observedRoomId, "leave") }) { color(Colors.RED, msg) }
+            })
             true
         }
     }
 
+    // Annotates move buttons with effectiveness and damage ranges of every move against every foe
+    private suspend fun analyzeMoves(request: BattleDecisionRequest) {
+        val foes = (0 until request.count).map { observer.getBattlingPokemon(PokemonId(Player.FOE, it)) }
+        val foeSpeciesIds = foes.map { (it?.transformSpecies ?: it?.species)?.toId() }
+        val sideSpeciesIds = (0 until request.count).map { request.side[it].species.toId() }
+        val dexPokemons = assetLoader.dexPokemons(foeSpeciesIds.filterNotNull() + sideSpeciesIds)
+        val movesDetails = (0 until request.count).map { slot ->
+            val moves = request.getMoves(slot)
+            if (request.forceSwitch(slot) || moves == null) emptyList()
+            else assetLoader.movesDetails(*moves.map { it.id }.toTypedArray())
+        }
+        if (request !== lastDecisionRequest || _binding == null) return
+
+        val widget = binding.battleDecisionWidget
+        for (position in foes.indices) {
+            val dexPokemon = dexPokemons[foeSpeciesIds[position] ?: continue] ?: continue
+            widget.setFoeTypes(position, TypeChart.indexOf(dexPokemon.firstType), TypeChart.indexOf(dexPokemon.secondType))
+        }
+        for (slot in 0 until request.count) {
+            val moves = request.getMoves(slot) ?: continue
+            val side = request.side[slot]
+            val sideDexPokemon = dexPokemons[sideSpeciesIds[slot]]
+            damageCalculator.setAttacker(side.level, side.stats,
+                    observer.getBattlingPokemon(PokemonId(Player.TRAINER, slot))?.statModifiers,
+                    TypeChart.indexOf(sideDexPokemon?.firstType), TypeChart.indexOf(sideDexPokemon?.secondType),
+                    side.condition.status == "brn")
+            for (position in foes.indices) {
+                val foe = foes[position] ?: continue
+                val foeDexPokemon = dexPokemons[foeSpeciesIds[position] ?: continue] ?: continue
+                if (foe.fainted) continue
+                damageCalculator.setDefender(foe.level, foeDexPokemon.baseStats, foe.statModifiers,
+                        TypeChart.indexOf(foeDexPokemon.firstType), TypeChart.indexOf(foeDexPokemon.secondType))
+                movesDetails[slot].forEachIndexed { index, details ->
+                    if (details == null || index >= moves.size) return@forEachIndexed
+                    val spread = request.count > 1 && (details.target == Move.Target.ALL_ADJACENT_FOES ||
+                            details.target == Move.Target.ALL_ADJACENT)
+                    widget.setDamageRange(slot, moves[index].index, position, damageCalculator.percentRange(details, spread))
+                }
+            }
+        }
+        widget.notifyDetailsUpdated()
+    }
+
     override fun onDecisionRequest(request: BattleDecisionRequest) {
         lastDecisionRequest = request
         if (checkWillCrash(request)) return
@@ -655,6 +711,7 @@ class BattleFragment : BaseFragment(), BattleRoomMessageObserver.UiCallbacks, Vi
         binding.battleDecisionWidget.promptDecision(observer, battleTipPopup, request) { decision ->
             sendDecision(request.id, decision)
         }
+        if (!request.teamPreview) fragmentScope.launch { analyzeMoves(request) }
         var hideSwitch = true
         for (which in 0 until request.count) {
             if (!request.trapped(which)) hideSwitch = false
@@ -792,7 +849,7 @@ class BattleFragment : BaseFragment(), BattleRoomMessageObserver.UiCallbacks, Vi
         // Ignored
     }
 
-    override fun onUpdateUsers(users: List<String>) {
+    override fun onUpdateUsers(users: RoomUsers) {
         // Ignored
     }
 
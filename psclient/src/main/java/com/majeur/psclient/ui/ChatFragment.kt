@@ -16,6 +16,7 @@ import com.majeur.psclient.databinding.FragmentChatBinding
 import com.majeur.psclient.io.AssetLoader
 import com.majeur.psclient.io.GlideHelper
 import com.majeur.psclient.model.ChatRoomInfo
+import com.majeur.psclient.model.RoomUsers
 import com.majeur.psclient.service.ShowdownService
 import com.majeur.psclient.service.observer.ChatRoomMessageObserver
 import com.majeur.psclient.util.Callback
@@ -40,7 +41,7 @@ class ChatFragment : BaseFragment(), ChatRoomMessageObserver.UiCallbacks {
         get() = _observedRoomId
         set(observedRoomId) {
             _observedRoomId = observedRoomId
-            observer.observedRoomId = observedRoomId
+            service!!.rooms.showChatRoom(observedRoomId)
         }
 
     override fun onAttach(context: Context) {
@@ -198,7 +199,7 @@ class ChatFragment : BaseFragment(), ChatRoomMessageObserver.UiCallbacks {
         binding.roomTitle.text = title
     }
 
-    override fun onUpdateUsers(users: List<String>) {
+    override fun onUpdateUsers(users: RoomUsers) {
         binding.usersCount.text = "${users.size} users"
     }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.majeur.psclient.ui
 
 import android.annotation.SuppressLint
+import android.app.Activity
 import android.content.*
 import android.graphics.Color
 import android.graphics.drawable.BitmapDrawable
@@ -31,6 +32,7 @@ import com.majeur.psclient.R
 import com.majeur.psclient.databinding.DialogSimpleInputBinding
 import com.majeur.psclient.databinding.FragmentHomeBinding
 import com.majeur.psclient.io.AssetLoader
+import com.majeur.psclient.io.SpritePack
 import com.majeur.psclient.model.BattleRoomInfo
 import com.majeur.psclient.model.ChatRoomInfo
 import com.majeur.psclient.model.common.BattleFormat
@@ -42,9 +44,12 @@ import com.majeur.psclient.util.*
 import com.majeur.psclient.widget.CategoryAdapter
 import com.majeur.psclient.widget.PrivateMessagesOverviewWidget.OnItemButtonClickListener
 import com.majeur.psclient.widget.PrivateMessagesOverviewWidget.OnItemClickListener
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import timber.log.Timber
+import java.io.IOException
 
 class HomeFragment : BaseFragment(), GlobalMessageObserver.UiCallbacks, View.OnClickListener {
 
@@ -65,6 +70,7 @@ class HomeFragment : BaseFragment(), GlobalMessageObserver.UiCallbacks, View.OnC
     private var isAcceptingFrom: String? = null
     private var onConnectedListeners = mutableMapOf<String, () -> Unit>()
     private var roomDeinitListeners = mutableMapOf<String, (String) -> Unit>()
+    private var requestedRoomId: String? = null
 
     private var _binding: FragmentHomeBinding? = null
     private val binding get() = _binding!!
@@ -202,6 +208,59 @@ class HomeFragment : BaseFragment(), GlobalMessageObserver.UiCallbacks, View.OnC
         binding.replaySearchButton.setOnClickListener(this)
         binding.newsButton.setOnClickListener(this)
         binding.bugReportButton.setOnClickListener(this)
+        // Does not need the server, unlike buttons handled in onClick()
+        binding.spritePackButton.setOnClickListener { showSpritePackDialog() }
+    }
+
+    private fun showSpritePackDialog() {
+        val pack = SpritePack.current
+        val dialog = MaterialAlertDialogBuilder(requireActivity())
+                .setTitle("Sprite pack")
+                .setNegativeButton("Cancel", null)
+        if (pack == null) {
+            dialog.setMessage("Install a sprite pack file to display sprites without downloading them. Sprites missing from the pack are still downloaded.")
+                    .setPositiveButton("Choose file") { _: DialogInterface?, _: Int -> pickSpritePack() }
+        } else {
+            dialog.setMessage("Installed sprite pack holds ${pack.size} sprites.")
+                    .setPositiveButton("Replace") { _: DialogInterface?, _: Int -> pickSpritePack() }
+                    .setNeutralButton("Remove") { _: DialogInterface?, _: Int ->
+                        val filesDir = requireContext().filesDir
+                        fragmentScope.launch {
+                            withContext(Dispatchers.IO) { SpritePack.uninstall(filesDir) }
+                            makeSnackbar("Sprite pack removed")
+                        }
+                    }
+        }
+        dialog.show()
+    }
+
+    private fun pickSpritePack() {
+        val intent = Intent(Intent.ACTION_OPEN_DOCUMENT).apply {
+            addCategory(Intent.CATEGORY_OPENABLE)
+            type = "*/*"
+        }
+        startActivityForResult(intent, SPRITE_PACK_REQUEST_CODE)
+    }
+
+    override fun onActivityResult(requestCode: Int, resultCode: Int, data: Intent?) {
+        val uri = data?.data
+        if (requestCode != SPRITE_PACK_REQUEST_CODE || resultCode != Activity.RESULT_OK || uri == null) {
+            super.onActivityResult(requestCode, resultCode, data)
+            return
+        }
+        val context = requireContext().applicationContext
+        fragmentScope.launch {
+            val installed = withContext(Dispatchers.IO) {
+                try {
+                    context.contentResolver.openInputStream(uri)?.use { SpritePack.install(context.filesDir, it) } != null
+                } catch (e: IOException) {
+                    Timber.w(e, "Could not install sprite pack")
+                    false
+                }
+            }
+            makeSnackbar(if (installed) "Sprite pack installed (${SpritePack.current?.size ?: 0} sprites)"
+                    else "This file is not a valid sprite pack")
+        }
     }
 
     override fun onClick(view: View) {
@@ -339,6 +398,7 @@ class HomeFragment : BaseFragment(), GlobalMessageObserver.UiCallbacks, View.OnC
     }
 
     fun onTeamsChanged() {
+        if (_binding == null) return // Teams can be loaded before our view is created
         updateTeamSpinner(maintainSelection = true)
     }
 
@@ -388,10 +448,33 @@ class HomeFragment : BaseFragment(), GlobalMessageObserver.UiCallbacks, View.OnC
                 makeSnackbar("Your team is empty !")
                 return
             }
-            service?.sendGlobalCommand("utm", team.pack())
+            validateTeam(team, currentBattleFormat!!.label)
         } else {
-            service?.sendGlobalCommand("utm", "null")
+            sendSearch(null)
         }
+    }
+
+    // Server would reject an invalid team anyway, we only save a round trip and let user decide
+    private fun validateTeam(team: Team, format: String) {
+        val validator = mainActivity.teamValidator
+        if (!validator.appliesTo(format)) return sendSearch(team)
+        fragmentScope.launch {
+            val pokemons = team.pokemons
+            validator.prepare(pokemons)
+            val problems = validator.validate(format, pokemons)
+            if (problems.isEmpty()) return@launch sendSearch(team)
+            MaterialAlertDialogBuilder(requireActivity())
+                    .setTitle("Your team may be invalid")
+                    .setMessage(problems.joinToString("\n"))
+                    .setPositiveButton("Search anyway") { _, _ -> sendSearch(team) }
+                    .setNegativeButton("Cancel", null)
+                    .show()
+        }
+    }
+
+    private fun sendSearch(team: Team?) {
+        if (service?.isConnected != true) return
+        service?.sendGlobalCommand("utm", team?.pack() ?: "null")
         when {
             isChallengingSomeone -> {
                 service?.sendGlobalCommand("challenge", challengeTo!!.toId(), currentBattleFormat!!.label.toId())
@@ -413,11 +496,19 @@ class HomeFragment : BaseFragment(), GlobalMessageObserver.UiCallbacks, View.OnC
         if (currentRoomId != null) {
             if (isBattle) mainActivity.showBattleFragment() else mainActivity.showChatFragment()
             if (currentRoomId == roomId) return
+        }
+        if (service?.rooms?.contains(roomId) == true) {
+            // Already joined in background, we only have to bring it to front
+            if (currentRoomId?.startsWith("replay-") == true) service?.replayManager?.closeReplay()
+            if (isBattle) battleFragment.observedRoomId = roomId else chatFragment.observedRoomId = roomId
+            updateJoinedBattlesButtons()
+            return
+        }
+        if (currentRoomId?.startsWith("replay-") == true) {
             AlertDialog.Builder(mainActivity).apply {
                 setTitle("Warning")
-                setMessage("You are already in " concat readableRoomName(currentRoomId) concat ".\nJoining "
-                        concat readableRoomName(roomId) concat " will make you leave "
-                        concat readableRoomName(currentRoomId) concat ".")
+                setMessage("You are watching " concat readableRoomName(currentRoomId) concat ".\nJoining "
+                        concat readableRoomName(roomId) concat " will close it.")
                 setPositiveButton("Continue") { _, _ -> requestRoomJoin(roomId) }
                 setNegativeButton("Cancel") { _,_ -> }
                 show()
@@ -449,7 +540,9 @@ class HomeFragment : BaseFragment(), GlobalMessageObserver.UiCallbacks, View.OnC
         val isReplay = roomId.startsWith("replay-", ignoreCase = true)
         val isBattle = roomId.startsWith("battle-", ignoreCase = true) || isReplay
         val currentRoomId = if (isBattle) battleFragment.observedRoomId else chatFragment.observedRoomId
-        if (currentRoomId != null) {
+        requestedRoomId = roomId
+        // Other rooms are kept in background, only a replay has to be closed before joining
+        if (currentRoomId?.startsWith("replay-") == true) {
             roomDeinitListeners[roomId] = { deinitRoomId ->
                 if (deinitRoomId == currentRoomId) { // Now that previous room is safely leaved, join the new one
                     roomDeinitListeners.remove(roomId)
@@ -459,10 +552,7 @@ class HomeFragment : BaseFragment(), GlobalMessageObserver.UiCallbacks, View.OnC
                         service?.sendGlobalCommand("join", roomId)
                 }
             }
-            if (currentRoomId.startsWith("replay-"))
-                service?.replayManager?.closeReplay()
-            else
-                service?.sendRoomCommand(currentRoomId, "leave")
+            service?.replayManager?.closeReplay()
         } else {
             if (isReplay)
                 service?.replayManager?.startReplay(roomId)
@@ -805,36 +895,34 @@ class HomeFragment : BaseFragment(), GlobalMessageObserver.UiCallbacks, View.OnC
     }
 
     override fun onRoomInit(roomId: String, type: String) {
+        val requested = roomId == requestedRoomId
+        if (requested) requestedRoomId = null
         when (type) {
             "battle" -> {
-                if (battleFragment.observedRoomId == null) {
-                    battleFragment.observedRoomId = roomId
-                    mainActivity.showBattleFragment()
-                } else if (!battleFragment.battleRunning && !battleFragment.isReplay) {
-                    service?.sendRoomCommand(battleFragment.observedRoomId, "leave")
+                val currentRoomId = battleFragment.observedRoomId
+                // Restored or rejoined room we are already showing, it must not be left
+                val reattached = roomId == currentRoomId
+                val currentEnded = !reattached && currentRoomId != null && !battleFragment.battleRunning &&
+                        !battleFragment.isReplay
+                if (currentRoomId == null || reattached || currentEnded || requested) {
+                    if (currentEnded && currentRoomId != roomId) service?.sendRoomCommand(currentRoomId, "leave")
                     battleFragment.observedRoomId = roomId
                     mainActivity.showBattleFragment()
-                } else {
-                    // Most of the time this is an auto joined battle coming from a new search, let's
-                    // just leave it silently. If the user wants to join it deliberately, he will
-                    // be able to do that from the "you're currently in" menu.
-                    if (roomId.startsWith("replay-")) service?.replayManager?.closeReplay()
-                    else service?.sendRoomCommand(roomId, "leave")
-                }
-                binding.joinedBattlesContainer.children.forEach { button ->
-                    // Disable the corresponding button if battle is already joined
-                    button.isEnabled = button.tag as String != battleFragment.observedRoomId
+                } else if (roomId.startsWith("replay-")) {
+                    service?.replayManager?.closeReplay()
                 }
+                // Otherwise this is most of the time an auto joined battle coming from a new search, it
+                // is kept in background. The user will be able to bring it to front from the "you're
+                // currently in" menu.
+                updateJoinedBattlesButtons()
             }
             "chat" -> {
                 // lobby init can trigger this two times, make sure to avoid that
                 if (chatFragment.observedRoomId == roomId) return
 
-                if (chatFragment.observedRoomId == null) {
+                if (chatFragment.observedRoomId == null || requested) {
                     chatFragment.observedRoomId = roomId
                     mainActivity.showChatFragment()
-                } else {
-                    service?.sendRoomCommand(roomId, "leave")
                 }
             }
         }
@@ -845,13 +933,15 @@ class HomeFragment : BaseFragment(), GlobalMessageObserver.UiCallbacks, View.OnC
             battleFragment.observedRoomId -> battleFragment.observedRoomId = null
             chatFragment.observedRoomId -> chatFragment.observedRoomId = null
         }
-        binding.joinedBattlesContainer.children.forEach { button ->
-            // Enable the corresponding button if battle is already joined
-            button.isEnabled = button.tag as String != battleFragment.observedRoomId
-        }
+        updateJoinedBattlesButtons()
         roomDeinitListeners.values.forEach { it.invoke(roomId) }
     }
 
+    private fun updateJoinedBattlesButtons() = binding.joinedBattlesContainer.children.forEach { button ->
+        // Disable the button of the battle currently shown
+        button.isEnabled = button.tag as String != battleFragment.observedRoomId
+    }
+
     override fun onNetworkError() {
         Snackbar.make(requireView(), "Unable to reach Showdown server", Snackbar.LENGTH_INDEFINITE)
                 .setAction("Retry") {
@@ -888,11 +978,12 @@ class HomeFragment : BaseFragment(), GlobalMessageObserver.UiCallbacks, View.OnC
             val team = getItem(position) as Team
             viewHolder.labelView.text = team.label
             viewHolder.pokemonViews.forEach { it.setImageDrawable(null) }
-            if (team.pokemons.isEmpty()) return convertView
+            val speciesIds = team.speciesIds
+            if (speciesIds.isEmpty()) return convertView
 
             viewHolder.job?.cancel()
             viewHolder.job = fragmentScope.launch {
-                assetLoader.dexIcons(*team.pokemons.map { it.species.toId() }.toTypedArray()).forEachIndexed { index, bitmap ->
+                assetLoader.dexIcons(*speciesIds.toTypedArray()).forEachIndexed { index, bitmap ->
                     val drawable = BitmapDrawable(convertView.resources, bitmap)
                     viewHolder.pokemonViews[index].setImageDrawable(drawable)
                 }
@@ -902,6 +993,7 @@ class HomeFragment : BaseFragment(), GlobalMessageObserver.UiCallbacks, View.OnC
     }
 
     companion object {
+        private const val SPRITE_PACK_REQUEST_CODE = 195
         private const val URL_BUG_REPORT_GFORM = "https://docs.google.com/forms/d/e/1FAIpQLSfvaHpKtRhN-naHtmaIongBRzjU0rmPXu770tvjseWUNky48Q/viewform?usp=send_form"
         private const val URL_SMOGON_THREAD = "https://www.smogon.com/forums/threads/02-23-alpha06-unofficial-showdown-android-client.3654298/"
         private val USERNAME_REGEX = "[{}:\",|\\[\\]]".toRegex()
@@ -182,9 +182,13 @@ class ImportTeamDialog : BottomSheetDialogFragment() {
 
     private fun handleRawTeamData(data: String) {
         fragmentScope.launch {
-            val teams = SmogonTeamParser.parseTeams(data, assetLoader)
+            binding.importButton.isEnabled = false
+            val teams = SmogonTeamParser.parseTeams(data, assetLoader) { parsed, total ->
+                if (total > 1) _binding?.error?.text = "Importing teams... $parsed/$total"
+            }
             if (teams.isEmpty()) {
                 makeSnackbar("Import resulted in empty team")
+                binding.importButton.isEnabled = true
             } else {
                 teamFragment.onTeamsImported(teams)
                 dismiss()
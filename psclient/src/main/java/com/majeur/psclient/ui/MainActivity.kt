@@ -20,6 +20,7 @@ import com.majeur.psclient.databinding.ActivityMainBinding
 import com.majeur.psclient.io.AssetLoader
 import com.majeur.psclient.io.GlideHelper
 import com.majeur.psclient.service.ShowdownService
+import com.majeur.psclient.util.TeamValidator
 import timber.log.Timber
 
 
@@ -27,6 +28,7 @@ class MainActivity : AppCompatActivity() {
 
     val glideHelper by lazy { GlideHelper(this) }
     val assetLoader by lazy { AssetLoader(this) }
+    val teamValidator by lazy { TeamValidator(assetLoader) }
 
     private lateinit var showdownServiceIntent: Intent
     private val canUseLandscapeLayout by lazy { resources.getBoolean(R.bool.canUseLandscapeLayout) }
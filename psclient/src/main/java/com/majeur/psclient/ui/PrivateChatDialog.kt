@@ -13,13 +13,13 @@ import android.widget.TextView
 import androidx.fragment.app.DialogFragment
 import com.majeur.psclient.databinding.DialogPrivateChatBinding
 import com.majeur.psclient.util.TextTagSpan
+import com.majeur.psclient.util.UsernameColors
 import com.majeur.psclient.util.Utils
 import com.majeur.psclient.util.toId
 
 
 class PrivateChatDialog : DialogFragment() {
 
-    private val usernameColorCache = mutableMapOf<String, Int>()
 
     lateinit var chatWith: String
         private set
@@ -91,12 +91,7 @@ class PrivateChatDialog : DialogFragment() {
         }
     }
 
-    private fun obtainUsernameColor(username: String): Int {
-
-        return usernameColorCache.getOrElse(username.toId()) {
-            Utils.hashColor(username.toId()).also { usernameColorCache[username.toId()] = it }
-        }
-    }
+    private fun obtainUsernameColor(username: String) = UsernameColors.get(username.toId())
 
     companion object {
         const val FRAGMENT_TAG = "private-chat-dialog"
@@ -10,6 +10,7 @@ import android.os.Bundle
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
+import androidx.appcompat.widget.SearchView
 import androidx.core.os.bundleOf
 import androidx.recyclerview.widget.ItemTouchHelper
 import androidx.recyclerview.widget.RecyclerView
@@ -21,6 +22,7 @@ import com.majeur.psclient.io.AssetLoader
 import com.majeur.psclient.io.TeamsStore
 import com.majeur.psclient.model.common.BattleFormat
 import com.majeur.psclient.model.common.Team
+import com.majeur.psclient.model.common.TeamIndex
 import com.majeur.psclient.model.common.toId
 import com.majeur.psclient.ui.teambuilder.TeamBuilderActivity
 import com.majeur.psclient.util.recyclerview.DividerItemDecoration
@@ -28,6 +30,7 @@ import com.majeur.psclient.util.recyclerview.ItemTouchHelperCallbacks
 import com.majeur.psclient.util.recyclerview.OnItemClickListener
 import com.majeur.psclient.util.smogon.SmogonTeamBuilder
 import com.majeur.psclient.util.toId
+import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.launch
 import java.io.Serializable
@@ -43,6 +46,9 @@ class TeamsFragment : BaseFragment(), OnItemClickListener {
     private lateinit var listAdapter: TeamListAdapter
 
     private val groups = mutableListOf<Team.Group>()
+    private val teamIndex = TeamIndex()
+    private var teamQuery = ""
+    private var teamFilter: Set<Int>? = null // Unique ids of the teams matching the query
     private val fallbackFormat = BattleFormat.FORMAT_OTHER
 
     private var _binding: FragmentTeamsBinding? = null
@@ -61,17 +67,31 @@ class TeamsFragment : BaseFragment(), OnItemClickListener {
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
+        groups.clear()
         fragmentScope.launch {
-            val storedGroups = teamsStore.get()
-            groups.clear()
-            groups.addAll(storedGroups.sortedWith(Comparator<Team.Group> { g1, g2 ->
-                BattleFormat.compare(battleFormats, g1.format, g2.format)
-            }))
-            groups.forEach { g -> g.teams.sort() }
-            if (this@TeamsFragment::listAdapter.isInitialized) {
-                listAdapter.notifyDataSetChanged()
+            teamsStore.load { teams -> onTeamsLoaded(teams) }
+        }
+    }
+
+    // Stored teams come by chunks, we show them as they arrive
+    private fun onTeamsLoaded(teams: List<Team>) {
+        teams.forEach { team ->
+            val formatId = team.format?.toId() ?: fallbackFormat.toId()
+            var group = groups.firstOrNull { it.format.toId() == formatId }
+            if (group == null) {
+                group = Team.Group(formatId)
+                val index = groups.plus(group).sortedWith(Comparator<Team.Group> { g1, g2 ->
+                    BattleFormat.compare(battleFormats, g1.format, g2.format)
+                }).indexOf(group)
+                groups.add(index, group)
             }
+            val index = group.teams.binarySearch(team)
+            group.teams.add(if (index < 0) -index - 1 else index, team)
+            teamIndex.add(team)
         }
+        if (teamFilter != null) teamFilter = teamIndex.search(teamQuery)
+        if (this::listAdapter.isInitialized) listAdapter.notifyDataSetChanged()
+        homeFragment.onTeamsChanged()
     }
 
     override fun onCreateView(inflater: LayoutInflater, container: ViewGroup?, savedInstanceState: Bundle?): View? {
@@ -117,6 +137,17 @@ class TeamsFragment : BaseFragment(), OnItemClickListener {
                 }
             }).attachToRecyclerView(this)
         }
+        binding.searchView.setOnQueryTextListener(object : SearchView.OnQueryTextListener {
+
+            override fun onQueryTextChange(newText: String?): Boolean {
+                teamQuery = newText ?: ""
+                applyTeamFilter()
+                return true
+            }
+
+            override fun onQueryTextSubmit(query: String?) = false
+
+        })
         binding.buildFab.setOnClickListener {
             startTeamBuilderActivity()
         }
@@ -168,12 +199,12 @@ class TeamsFragment : BaseFragment(), OnItemClickListener {
     }
 
     fun onTeamsImported(teams: List<Team>) {
-        for (team in teams) addOrUpdateTeam(team, persistTeams = false)
-        persistUserTeams()
+        for (team in teams) addOrUpdateTeam(team, persistTeam = false)
+        persist(teamsStore.putAll(teams))
         makeSnackbar("Successfully imported ${teams.size} team(s)")
     }
 
-    private fun addOrUpdateTeam(newTeam: Team, persistTeams: Boolean = true) {
+    private fun addOrUpdateTeam(newTeam: Team, persistTeam: Boolean = true) {
         if (newTeam.format == null) newTeam.format = fallbackFormat.toId()
         var teamAdded = false
         for (group in groups) {
@@ -183,21 +214,21 @@ class TeamsFragment : BaseFragment(), OnItemClickListener {
                     val adapterPosition = listAdapter.getItemPosition(oldTeam)
                     val indexInGroup = group.teams.indexOf(oldTeam)
                     group.teams[indexInGroup] = newTeam
-                    listAdapter.notifyItemChanged(adapterPosition)
+                    if (teamFilter == null) listAdapter.notifyItemChanged(adapterPosition)
                     teamAdded = true
                     if (oldTeam.label != newTeam.label) { // Label changed, move team to correct position
                         val newIndex = group.teams.sorted().indexOf(newTeam)
                         group.teams.add(newIndex, group.teams.removeAt(indexInGroup))
-                        listAdapter.notifyItemMoved(adapterPosition, listAdapter.getItemPosition(newTeam))
+                        if (teamFilter == null) listAdapter.notifyItemMoved(adapterPosition, listAdapter.getItemPosition(newTeam))
                     }
                 } else { // Format has changed so we need to remove team from its previous group
                     var adapterPosition = listAdapter.getItemPosition(oldTeam)
                     group.teams.remove(oldTeam)
-                    listAdapter.notifyItemRemoved(adapterPosition)
+                    if (teamFilter == null) listAdapter.notifyItemRemoved(adapterPosition)
                     if (group.teams.isEmpty()) {
                         adapterPosition = listAdapter.getItemPosition(group)
                         groups.remove(group)
-                        listAdapter.notifyItemRemoved(adapterPosition)
+                        if (teamFilter == null) listAdapter.notifyItemRemoved(adapterPosition)
                     }
                 }
                 break
@@ -206,7 +237,7 @@ class TeamsFragment : BaseFragment(), OnItemClickListener {
                 val index = group.teams.plus(newTeam).sorted().indexOf(newTeam)
                 group.teams.add(index, newTeam)
                 val adapterPosition = listAdapter.getItemPosition(newTeam)
-                listAdapter.notifyItemInserted(adapterPosition)
+                if (teamFilter == null) listAdapter.notifyItemInserted(adapterPosition)
                 teamAdded = true
             }
         }
@@ -217,13 +248,15 @@ class TeamsFragment : BaseFragment(), OnItemClickListener {
             }).indexOf(newGroup)
             groups.add(index, newGroup)
             var adapterPosition = listAdapter.getItemPosition(newGroup)
-            listAdapter.notifyItemInserted(adapterPosition)
+            if (teamFilter == null) listAdapter.notifyItemInserted(adapterPosition)
             newGroup.teams.add(newTeam)
             adapterPosition = listAdapter.getItemPosition(newTeam)
-            listAdapter.notifyItemInserted(adapterPosition)
+            if (teamFilter == null) listAdapter.notifyItemInserted(adapterPosition)
         }
+        teamIndex.add(newTeam)
+        if (teamFilter != null) applyTeamFilter() // Item changes are not tracked while filtering
         homeFragment.onTeamsChanged()
-        if (persistTeams) persistUserTeams()
+        if (persistTeam) persist(teamsStore.put(newTeam))
     }
 
     private fun removeTeam(team: Team) {
@@ -231,16 +264,23 @@ class TeamsFragment : BaseFragment(), OnItemClickListener {
             val matchingTeam = group.teams.firstOrNull { it.uniqueId == team.uniqueId } ?: continue
             var adapterPosition = listAdapter.getItemPosition(matchingTeam)
             group.teams.remove(matchingTeam)
-            listAdapter.notifyItemRemoved(adapterPosition)
+            if (teamFilter == null) listAdapter.notifyItemRemoved(adapterPosition)
             if (group.teams.isEmpty()) {
                 adapterPosition = listAdapter.getItemPosition(group)
                 groups.remove(group)
-                listAdapter.notifyItemRemoved(adapterPosition)
+                if (teamFilter == null) listAdapter.notifyItemRemoved(adapterPosition)
             }
             break
         }
+        teamIndex.remove(team)
+        if (teamFilter != null) applyTeamFilter()
         homeFragment.onTeamsChanged()
-        persistUserTeams()
+        persist(teamsStore.remove(team))
+    }
+
+    private fun applyTeamFilter() {
+        teamFilter = teamIndex.search(teamQuery)
+        listAdapter.notifyDataSetChanged()
     }
 
     private fun resolveFormatName(formatId: String): String {
@@ -250,9 +290,10 @@ class TeamsFragment : BaseFragment(), OnItemClickListener {
         return formatId
     }
 
-    private fun persistUserTeams() {
+    // Writes are queued by the store as soon as they are called, we only report failures
+    private fun persist(write: Deferred<Boolean>) {
         fragmentScope.launch {
-            val success = teamsStore.store(groups)
+            val success = write.await()
             if (!success) Snackbar.make(binding.root, "Error while saving teams", Snackbar.LENGTH_LONG).show()
         }
     }
@@ -299,21 +340,34 @@ class TeamsFragment : BaseFragment(), OnItemClickListener {
             }
         }
 
+        // Groups without any team matching the filter are hidden as well
+        private fun isShown(team: Team) = teamFilter?.contains(team.uniqueId) ?: true
+        private fun isShown(group: Team.Group) = teamFilter == null || group.teams.any(::isShown)
+
         override fun getItemCount(): Int {
             var count = 0
-            groups.forEach { g -> count += 1 + g.teams.size }
+            groups.forEach { g -> if (isShown(g)) count += 1 + g.teams.count(::isShown) }
             return count
         }
 
         fun getItem(position: Int): Any? {
             var count = -1
-            groups.forEach { g -> if (++count == position) return g else g.teams.forEach { if (++count == position) return it } }
+            groups.forEach { g ->
+                if (!isShown(g)) return@forEach
+                if (++count == position) return g
+                g.teams.forEach { if (isShown(it) && ++count == position) return it }
+            }
             return null
         }
 
         fun getItemPosition(item: Any): Int {
             var count = -1
-            groups.forEach { g -> ++count; if (g == item) return count else g.teams.forEach { ++count; if (it == item) return count } }
+            groups.forEach { g ->
+                if (!isShown(g)) return@forEach
+                count++
+                if (g == item) return count
+                g.teams.forEach { if (isShown(it)) { ++count; if (it == item) return count } }
+            }
             return -1
         }
 
@@ -333,9 +387,10 @@ class TeamsFragment : BaseFragment(), OnItemClickListener {
                 holder.binding.textViewTitle.text = team.label
                 holder.pokemonViews.forEach { it.setImageDrawable(null) }
                 holder.job?.cancel()
-                if (team.pokemons.isNotEmpty()) {
+                val speciesIds = team.speciesIds
+                if (speciesIds.isNotEmpty()) {
                     holder.job = fragmentScope.launch {
-                        assetLoader.dexIcons(*team.pokemons.map { it.species.toId() }.toTypedArray()).forEachIndexed { index, bitmap ->
+                        assetLoader.dexIcons(*speciesIds.toTypedArray()).forEachIndexed { index, bitmap ->
                             val drawable = BitmapDrawable(resources, bitmap)
                             holder.pokemonViews[index].setImageDrawable(drawable)
                         }
@@ -1,7 +1,6 @@
 package com.majeur.psclient.ui.teambuilder
 
 import android.content.Context
-import android.graphics.drawable.BitmapDrawable
 import android.os.Bundle
 import android.text.Spannable
 import android.text.Spanned
@@ -17,13 +16,13 @@ import androidx.recyclerview.widget.RecyclerView
 import com.majeur.psclient.R
 import com.majeur.psclient.databinding.ListItemItemBinding
 import com.majeur.psclient.io.AssetLoader
+import com.majeur.psclient.io.ItemCatalog
 import com.majeur.psclient.ui.BaseFragment
+import com.majeur.psclient.util.SheetRegionDrawable
 import com.majeur.psclient.util.Utils
 import com.majeur.psclient.util.dp
 import com.majeur.psclient.util.italic
 import com.majeur.psclient.util.recyclerview.OnItemClickListener
-import com.majeur.psclient.util.toId
-import kotlinx.coroutines.Job
 import kotlinx.coroutines.launch
 
 class ItemsFragment : ListFragment(), OnItemClickListener {
@@ -54,16 +53,14 @@ class ItemsFragment : ListFragment(), OnItemClickListener {
     override fun onViewCreated(view: View, savedInstanceState: Bundle?) {
         super.onViewCreated(view, savedInstanceState)
         fragmentScope.launch {
-            val items = assetLoader.allItems("")
-            val adapterItems = listOf("None") + items.orEmpty()
+            val catalog = assetLoader.itemCatalog()
             val textHighlightColor = Utils.alphaColor(ContextCompat.getColor(requireContext(), R.color.secondary), 0.45f)
-            setAdapter(Adapter(adapterItems, this@ItemsFragment, textHighlightColor))
+            setAdapter(Adapter(catalog, this@ItemsFragment, textHighlightColor))
         }
     }
 
     override fun onItemClick(itemView: View, holder: RecyclerView.ViewHolder, position: Int) {
-        val itemName = (holder as ItemsFragment.Adapter.ViewHolder).binding.nameView.text.toString()
-        if (itemName.isBlank()) return // Wait for the full name to be loaded by our AssetLoader
+        val itemName = (requireAdapter() as ItemsFragment.Adapter).getName(position)
         val bundle = bundleOf(
                 RESULT_ITEM to itemName
         )
@@ -71,20 +68,26 @@ class ItemsFragment : ListFragment(), OnItemClickListener {
         findNavController().navigateUp()
     }
 
+    // Rows are catalog indexes, NONE_ITEM standing for the "None" row
     inner class Adapter(
-            private val baseList: List<String>,
+            private val catalog: ItemCatalog,
             private val itemClickListener: OnItemClickListener,
             private val highlightColor: Int
     ) : RecyclerView.Adapter<Adapter.ViewHolder>() {
 
+        private val baseList = IntArray(catalog.size + 1) { it - 1 }
         private var adapterList = baseList
         private var filteringConstraint = ""
 
         inner class ViewHolder(
-                val binding: ListItemItemBinding,
-                var job: Job? = null
+                val binding: ListItemItemBinding
         ) : RecyclerView.ViewHolder(binding.root), View.OnClickListener {
 
+            val icon = SheetRegionDrawable(catalog.iconSheet).apply {
+                val size = binding.nameView.dp(24f)
+                setBounds(0, 0, size, size)
+            }
+
             init {
                 binding.root.setOnClickListener(this)
             }
@@ -97,51 +100,36 @@ class ItemsFragment : ListFragment(), OnItemClickListener {
 
         fun filter(constraint: String) {
             filteringConstraint = constraint
-            adapterList = baseList.filter { it.replace(" ", "").contains(constraint, true) }
+            adapterList = baseList.filter { nameOf(it).replace(" ", "").contains(constraint, true) }.toIntArray()
             notifyDataSetChanged()
         }
 
         fun getItem(position: Int) = adapterList[position]
 
+        fun getName(position: Int) = nameOf(getItem(position))
+
+        private fun nameOf(index: Int) = if (index == NONE_ITEM) "None" else catalog.names[index]
+
         override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ViewHolder {
             return ViewHolder(ListItemItemBinding.inflate(layoutInflater, parent, false))
         }
 
         override fun onBindViewHolder(holder: ViewHolder, position: Int) {
-            val itemName = getItem(position)
-            val isNoneItem = itemName == "None"
-
+            val index = getItem(position)
             holder.binding.apply {
-                //root.animate().cancel()
-                //root.alpha = 0f
-                nameView.text = ""
-                nameView.setCompoundDrawables(null, null, null, null)
                 nameView.compoundDrawablePadding = nameView.dp(4f)
-                detailsView.text = ""
-            }
-
-            holder.job?.cancel()
-            if (isNoneItem) {
-                holder.binding.apply {
-                    nameView.text = itemName.italic()
-                    //root.alpha = 1f
-                }
-                holder.job = null
-                return
-            }
-            holder.job = fragmentScope.launch {
-                val item = assetLoader.item(itemName.toId()) ?: return@launch
-                val icon = assetLoader.itemIcon(item.spriteId)
-                holder.binding.apply {
-                    nameView.setText(item.name, TextView.BufferType.SPANNABLE)
-                    highlightMatch(nameView)
-                    detailsView.text = item.description?.italic() ?: "No description".italic()
-                    val drawable = BitmapDrawable(resources, icon)
-                    val size = nameView.dp(24f)
-                    drawable.setBounds(0, 0, size, size)
-                    nameView.setCompoundDrawables(drawable, null, null, null)
-                    //root.animate().alpha(1f).setDuration(100L).start()
+                if (index == NONE_ITEM) {
+                    nameView.text = "None".italic()
+                    nameView.setCompoundDrawables(null, null, null, null)
+                    detailsView.text = ""
+                    return
                 }
+                nameView.setText(catalog.names[index], TextView.BufferType.SPANNABLE)
+                highlightMatch(nameView)
+                detailsView.text = catalog.descriptions[index]?.italic() ?: "No description".italic()
+                catalog.iconRect(index, holder.icon.region)
+                holder.icon.invalidateSelf()
+                nameView.setCompoundDrawables(holder.icon, null, null, null)
             }
         }
 
@@ -164,6 +152,8 @@ class ItemsFragment : ListFragment(), OnItemClickListener {
     }
 
     companion object {
+        private const val NONE_ITEM = -1
+
         const val RESULT_KEY = "request-result-item"
         const val RESULT_ITEM = "request-result-item"
     }
@@ -16,13 +16,13 @@ import androidx.recyclerview.widget.RecyclerView
 import com.majeur.psclient.R
 import com.majeur.psclient.databinding.ListItemMoveBinding
 import com.majeur.psclient.io.AssetLoader
+import com.majeur.psclient.io.MoveCatalog
 import com.majeur.psclient.model.common.Type
 import com.majeur.psclient.ui.BaseFragment
 import com.majeur.psclient.util.CategoryDrawable
 import com.majeur.psclient.util.Utils
 import com.majeur.psclient.util.italic
 import com.majeur.psclient.util.recyclerview.OnItemClickListener
-import kotlinx.coroutines.Job
 import kotlinx.coroutines.launch
 
 class MovesFragment : ListFragment(), OnItemClickListener {
@@ -58,15 +58,16 @@ class MovesFragment : ListFragment(), OnItemClickListener {
         super.onViewCreated(view, savedInstanceState)
         fragmentScope.launch {
             val moves = assetLoader.learnset(species)
-            val adapterItems = listOf("None") + moves.orEmpty()
+            val catalog = assetLoader.moveCatalog()
+            // Moves are shown as catalog indexes, the ones missing from it could not be shown anyway
+            val adapterItems = intArrayOf(NONE_MOVE) + moves.orEmpty().map { catalog.indexOf(it) }.filter { it >= 0 }
             val textHighlightColor = Utils.alphaColor(ContextCompat.getColor(requireContext(), R.color.secondary), 0.45f)
-            setAdapter(Adapter(adapterItems, this@MovesFragment, textHighlightColor))
+            setAdapter(Adapter(catalog, adapterItems, this@MovesFragment, textHighlightColor))
         }
     }
 
     override fun onItemClick(itemView: View, holder: RecyclerView.ViewHolder, position: Int) {
-        val moveName = (holder as Adapter.ViewHolder).binding.nameView.text.toString()
-        if (moveName.isBlank()) return // Wait for the full name to be loaded by our AssetLoader
+        val moveName = (requireAdapter() as Adapter).getName(position)
         val bundle = bundleOf(
                 RESULT_MOVE to moveName,
                 RESULT_SLOT to slot
@@ -76,7 +77,8 @@ class MovesFragment : ListFragment(), OnItemClickListener {
     }
 
     inner class Adapter(
-            private val baseList: List<String>,
+            private val catalog: MoveCatalog,
+            private val baseList: IntArray,
             private val itemClickListener: OnItemClickListener,
             private val highlightColor: Int
     ) : RecyclerView.Adapter<Adapter.ViewHolder>() {
@@ -85,8 +87,7 @@ class MovesFragment : ListFragment(), OnItemClickListener {
         private var filteringConstraint = ""
 
         inner class ViewHolder(
-                val binding: ListItemMoveBinding,
-                var job: Job? = null
+                val binding: ListItemMoveBinding
         ) : RecyclerView.ViewHolder(binding.root), View.OnClickListener {
 
             init {
@@ -101,49 +102,37 @@ class MovesFragment : ListFragment(), OnItemClickListener {
 
         fun filter(constraint: String) {
             filteringConstraint = constraint
-            adapterList = baseList.filter { it.replace(" ", "").contains(constraint, true) }
+            adapterList = baseList.filter { nameOf(it).replace(" ", "").contains(constraint, true) }.toIntArray()
             notifyDataSetChanged()
         }
 
         fun getItem(position: Int) = adapterList[position]
 
+        fun getName(position: Int) = nameOf(getItem(position))
+
+        private fun nameOf(index: Int) = if (index == NONE_MOVE) "None" else catalog.names[index]
+
         override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ViewHolder {
             return ViewHolder(ListItemMoveBinding.inflate(layoutInflater, parent, false))
         }
 
         override fun onBindViewHolder(holder: ViewHolder, position: Int) {
-            val moveId = getItem(position)
-            val isNoneItem = moveId == "None"
-
+            val index = getItem(position)
             holder.binding.apply {
-                //root.animate().cancel()
-                //root.alpha = 0f
-                nameView.text = ""
-                detailsView.text = ""
-                typeView.setImageDrawable(null)
-                categoryView.setImageDrawable(null)
-            }
-
-            holder.job?.cancel()
-            if (isNoneItem) {
-                holder.binding.apply {
-                    nameView.text = moveId.italic()
-                    //root.alpha = 1f
-                }
-                return
-            }
-            holder.job = fragmentScope.launch {
-                val details = assetLoader.moveDetails(moveId) ?: return@launch
-                holder.binding.apply {
-                    nameView.setText(details.name, TextView.BufferType.SPANNABLE)
-                    highlightMatch(nameView)
-                    detailsView.text = buildDetailsText(details.pp, details.basePower, details.accuracy)
-                    detailsView.append("\n")
-                    detailsView.append(details.desc?.italic() ?: "No description".italic())
-                    typeView.setImageResource(Type.getResId(details.type))
-                    categoryView.setImageDrawable(CategoryDrawable(details.category))
-                    //root.animate().alpha(1f).setDuration(100L).start()
+                if (index == NONE_MOVE) {
+                    nameView.text = "None".italic()
+                    detailsView.text = ""
+                    typeView.setImageDrawable(null)
+                    categoryView.setImageDrawable(null)
+                    return
                 }
+                nameView.setText(catalog.names[index], TextView.BufferType.SPANNABLE)
+                highlightMatch(nameView)
+                detailsView.text = buildDetailsText(catalog.pps[index], catalog.basePowers[index], catalog.accuracies[index])
+                detailsView.append("\n")
+                detailsView.append(catalog.descriptions[index]?.italic() ?: "No description".italic())
+                typeView.setImageResource(Type.getResId(catalog.types[index]))
+                categoryView.setImageDrawable(catalog.categories[index]?.let { CategoryDrawable(it) })
             }
         }
 
@@ -171,6 +160,7 @@ class MovesFragment : ListFragment(), OnItemClickListener {
     }
 
     companion object {
+        private const val NONE_MOVE = -1
 
         const val ARG_SPECIES = "arg-species"
         const val ARG_SLOT = "arg-slot"
@@ -43,6 +43,7 @@ class PokemonFragment : Fragment() {
     private val fragmentScope = BaseFragment.FragmentScope()
     private lateinit var assetLoader: AssetLoader
     private lateinit var glideHelper: GlideHelper
+    private lateinit var teamValidator: TeamValidator
 
     private var _binding: FragmentTbPokemonBinding? = null
     private val binding get() = _binding!!
@@ -54,8 +55,11 @@ class PokemonFragment : Fragment() {
         get() = requireActivity().getSystemService(Context.CLIPBOARD_SERVICE) as ClipboardManager
 
     // See TeamBuilderActivity field declaration comment
+    private val team
+        get() = (requireActivity() as TeamBuilderActivity).team
+
     private val pokemon
-        get() = (requireActivity() as TeamBuilderActivity).team.pokemons[slotIndex]
+        get() = team.pokemons[slotIndex]
 
     private var slotIndex = 0
     private var baseStats: Stats? = null
@@ -69,6 +73,7 @@ class PokemonFragment : Fragment() {
         val activity = context as TeamBuilderActivity
         assetLoader = activity.assetLoader
         glideHelper = activity.glideHelper
+        teamValidator = activity.teamValidator
     }
 
     override fun onCreate(savedInstanceState: Bundle?) {
@@ -89,6 +94,7 @@ class PokemonFragment : Fragment() {
             if (item != null) {
                 pokemon.item = if (item == "None") "" else item
                 binding.itemInput.text = item
+                validatePokemon()
             }
         }
 
@@ -99,6 +105,7 @@ class PokemonFragment : Fragment() {
                 // We know it's a 4 elements mutable list (See TeamBuilderActivity)
                 (pokemon.moves as MutableList<String>)[moveSlot] = if (moveName == "None") "" else moveName
                 moveInputs[moveSlot].text = moveName
+                validatePokemon()
             }
         }
     }
@@ -209,6 +216,7 @@ class PokemonFragment : Fragment() {
                     val level = editable.toString().toIntOrNull() ?: 100
                     binding.statsTable.setLevel(level)
                     pokemon.level = level
+                    validatePokemon()
                 }
             })
         }
@@ -376,6 +384,9 @@ class PokemonFragment : Fragment() {
                 baseStats = stats
                 binding.statsTable.setBaseStats(stats)
                 toggleInputViewsEnabled(true)
+
+                teamValidator.prepare(team.pokemons)
+                validatePokemon()
             }
         }
     }
@@ -406,6 +417,16 @@ class PokemonFragment : Fragment() {
         pokemon.ivs.set(stat, iv)
         binding.statsTable.setEVs(pokemon.evs)
         binding.statsTable.setIVs(pokemon.ivs)
+        validatePokemon()
+    }
+
+    // Tables are prepared once species is known, until then this does not report anything
+    private fun validatePokemon() {
+        val binding = _binding ?: return
+        val problems = if (teamValidator.appliesTo(team.format)) teamValidator.validate(team.format, team.pokemons, slotIndex)
+                else emptyList()
+        binding.validationErrors.text = problems.joinToString("\n")
+        binding.validationErrors.visibility = if (problems.isEmpty()) View.GONE else View.VISIBLE
     }
 
     inner class SpeciesAdapter : BaseAdapter(), Filterable {
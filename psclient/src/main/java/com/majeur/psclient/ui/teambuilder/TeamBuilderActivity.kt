@@ -16,6 +16,7 @@ import com.majeur.psclient.io.GlideHelper
 import com.majeur.psclient.model.common.BattleFormat
 import com.majeur.psclient.model.common.Team
 import com.majeur.psclient.model.common.toId
+import com.majeur.psclient.util.TeamValidator
 
 class TeamBuilderActivity : AppCompatActivity() {
 
@@ -26,6 +27,7 @@ class TeamBuilderActivity : AppCompatActivity() {
 
     val glideHelper by lazy { GlideHelper(this) }
     val assetLoader by lazy { AssetLoader(this) }
+    val teamValidator by lazy { TeamValidator(assetLoader) }
 
     private lateinit var binding: ActivityTeamBuilderBinding
 
@@ -20,6 +20,7 @@ import com.majeur.psclient.databinding.ListItemPokemonBinding
 import com.majeur.psclient.io.GlideHelper
 import com.majeur.psclient.model.common.BattleFormat
 import com.majeur.psclient.model.common.Nature
+import com.majeur.psclient.model.common.TypeChart
 import com.majeur.psclient.model.common.toId
 import com.majeur.psclient.model.pokemon.TeamPokemon
 import com.majeur.psclient.ui.BaseFragment
@@ -43,6 +44,12 @@ class TeamFragment : Fragment() {
     private val team get() = (requireActivity() as TeamBuilderActivity).team
     private var lastRemovedPokemon: TeamPokemon? = null
 
+    // Types of the species and moves met so far, packed as (type1 + 1) shl 8 or (type2 + 1), see TypeChart
+    private val speciesTypes = HashMap<String, Int>()
+    private val moveTypes = HashMap<String, Int>()
+    private val weakCounts = IntArray(TypeChart.COUNT)
+    private val resistCounts = IntArray(TypeChart.COUNT)
+
     private var _binding: FragmentTbTeamBinding? = null
     private val binding get() = _binding!!
 
@@ -193,6 +200,54 @@ class TeamFragment : Fragment() {
                 }
             }
         }
+        updateTypeCoverage()
+    }
+
+    // Only types we have not met yet need a lookup, summing is then made of mask operations
+    private fun updateTypeCoverage() {
+        val pokemons = team.pokemons.filter { it.species.isNotBlank() }
+        val missingSpecies = pokemons.map { it.species.toId() }.filterTo(HashSet()) { !speciesTypes.containsKey(it) }
+        val missingMoves = pokemons.flatMap { it.moves }.map { it.toId() }
+                .filterTo(HashSet()) { it.isNotEmpty() && !moveTypes.containsKey(it) }
+        if (missingSpecies.isEmpty() && missingMoves.isEmpty()) {
+            bindTypeCoverage(pokemons)
+            return
+        }
+        fragmentScope.launch {
+            val dexPokemons = if (missingSpecies.isEmpty()) emptyMap() else assetLoader.dexPokemons(missingSpecies)
+            missingSpecies.forEach { speciesId ->
+                val dexPokemon = dexPokemons[speciesId]
+                speciesTypes[speciesId] = if (dexPokemon == null) 0
+                        else (TypeChart.indexOf(dexPokemon.firstType) + 1) shl 8 or (TypeChart.indexOf(dexPokemon.secondType) + 1)
+            }
+            val moves = if (missingMoves.isEmpty()) emptyMap() else assetLoader.moves(missingMoves)
+            missingMoves.forEach { moveId ->
+                val details = moves[moveId]
+                // Status moves do not cover anything
+                moveTypes[moveId] = if (details == null || details.category.equals("status", ignoreCase = true)) TypeChart.NONE
+                        else TypeChart.indexOf(details.type)
+            }
+            if (_binding != null) bindTypeCoverage(team.pokemons.filter { it.species.isNotBlank() })
+        }
+    }
+
+    private fun bindTypeCoverage(pokemons: List<TeamPokemon>) {
+        weakCounts.fill(0)
+        resistCounts.fill(0)
+        var coverageMask = 0
+        pokemons.forEach { pokemon ->
+            val types = speciesTypes[pokemon.species.toId()] ?: 0
+            val type1 = (types shr 8) - 1
+            val type2 = (types and 0xFF) - 1
+            if (type1 != TypeChart.NONE) {
+                TypeChart.accumulate(TypeChart.weaknessMask(type1, type2), weakCounts)
+                TypeChart.accumulate(TypeChart.resistanceMask(type1, type2) or TypeChart.immunityMask(type1, type2), resistCounts)
+            }
+            pokemon.moves.forEach { move ->
+                coverageMask = coverageMask or TypeChart.superEffectiveMask(moveTypes[move.toId()] ?: TypeChart.NONE)
+            }
+        }
+        binding.header.typeCoverage.setCoverage(weakCounts, resistCounts, coverageMask)
     }
 
     val onListItemClickListener = View.OnClickListener { view ->
@@ -221,6 +276,7 @@ class TeamFragment : Fragment() {
             if (at < 0) adapterList.add(poke) else adapterList.add(at, poke)
             notifyItemInserted(adapterList.indexOf(poke))
             checkFabVisibility()
+            updateTypeCoverage()
         }
 
         fun removeItem(at: Int) {
@@ -234,6 +290,7 @@ class TeamFragment : Fragment() {
                     }
                     .show()
             checkFabVisibility()
+            updateTypeCoverage()
         }
 
         fun moveItem(from: Int, to: Int) {
@@ -0,0 +1,292 @@
+package com.majeur.psclient.util;
+
+import android.graphics.Typeface;
+import android.text.Spannable;
+import android.text.SpannableStringBuilder;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StrikethroughSpan;
+import android.text.style.StyleSpan;
+import android.text.style.SubscriptSpan;
+import android.text.style.SuperscriptSpan;
+import android.text.style.TypefaceSpan;
+import com.majeur.psclient.util.html.ChatCommandSpan;
+import com.majeur.psclient.util.html.URLSpan;
+
+/**
+ * Single pass tokenizer for Showdown's chat formatting, see
+ * https://github.com/smogon/pokemon-showdown-client/blob/master/src/battle-log.ts (parseMessage)
+ *
+ * Recognized tokens are **bold**, __italic__, ~~strikethrough~~, ^^superscript^^, \\subscript\\,
+ * ``code``, [[search links]], http(s) links and &lt;&lt;room&gt;&gt; links. Text is emitted into the
+ * {@link Sink} while it is read, tokens left unclosed are written back as plain text at the end.
+ */
+public final class ChatFormatter {
+
+    public static final int BOLD = 1;
+    public static final int ITALIC = 1 << 1;
+    public static final int STRIKETHROUGH = 1 << 2;
+    public static final int SUPERSCRIPT = 1 << 3;
+    public static final int SUBSCRIPT = 1 << 4;
+    public static final int CODE = 1 << 5;
+    public static final int LINK = 1 << 6;
+    public static final int ROOM_LINK = 1 << 7;
+    public static final int ALL = 0xFF;
+
+    // Index of each doubled char delimiter matches the bit index of its style
+    private static final char[] DELIMITERS = {'*', '_', '~', '^', '\\'};
+
+    private static final String SEARCH_URL = "https://www.google.com/search?ie=UTF-8&btnI&q=";
+
+    private ChatFormatter() {}
+
+    public interface Sink {
+        int length();
+        void append(CharSequence text, int start, int end);
+        void insert(int where, CharSequence text);
+        void setStyle(int style, int start, int end, String param);
+    }
+
+    public static CharSequence format(CharSequence text) {
+        return format(text, ALL);
+    }
+
+    public static CharSequence format(CharSequence text, int tokens) {
+        SpannableStringBuilder builder = new SpannableStringBuilder();
+        append(builder, text, tokens);
+        return builder;
+    }
+
+    public static void append(SpannableStringBuilder builder, CharSequence text) {
+        append(builder, text, ALL);
+    }
+
+    public static void append(SpannableStringBuilder builder, CharSequence text, int tokens) {
+        tokenize(text, tokens, new SpannableSink(builder));
+    }
+
+    public static void tokenize(CharSequence text, int tokens, Sink sink) {
+        final int len = text.length();
+        final int[] openAt = {-1, -1, -1, -1, -1};
+        final int[] openOrder = new int[openAt.length];
+        int openCount = 0;
+        int plainStart = 0;
+        int i = 0;
+        while (i < len) {
+            char c = text.charAt(i);
+            char next = i + 1 < len ? text.charAt(i + 1) : 0;
+
+            int delimiter = c == next ? delimiterIndex(c) : -1;
+            if (delimiter >= 0 && (tokens & (1 << delimiter)) != 0) {
+                sink.append(text, plainStart, i);
+                int start = openAt[delimiter];
+                if (start < 0) {
+                    openAt[delimiter] = sink.length();
+                    openOrder[delimiter] = openCount++;
+                } else if (start == sink.length()) { // Empty content, not a token
+                    sink.append(text, i, i + 2);
+                    sink.insert(start, text.subSequence(i, i + 2));
+                    openAt[delimiter] = -1;
+                } else {
+                    sink.setStyle(1 << delimiter, start, sink.length(), null);
+                    openAt[delimiter] = -1;
+                }
+                i += 2;
+                plainStart = i;
+                continue;
+            }
+
+            if (c == '`' && next == '`' && (tokens & CODE) != 0) {
+                int runEnd = i;
+                while (runEnd < len && text.charAt(runEnd) == '`') runEnd++;
+                int closeIndex = indexOf(text, text.subSequence(i, runEnd), runEnd);
+                if (closeIndex > runEnd) {
+                    sink.append(text, plainStart, i);
+                    int start = sink.length();
+                    sink.append(text, runEnd, closeIndex); // Code content is never formatted
+                    sink.setStyle(CODE, start, sink.length(), null);
+                    i = closeIndex + runEnd - i;
+                    plainStart = i;
+                } else {
+                    i = runEnd;
+                }
+                continue;
+            }
+
+            if (c == '[' && next == '[' && (tokens & LINK) != 0) {
+                int closeIndex = indexOf(text, "]]", i + 2);
+                if (closeIndex > i + 2) {
+                    sink.append(text, plainStart, i);
+                    appendSearchLink(text, i + 2, closeIndex, sink);
+                    i = closeIndex + 2;
+                    plainStart = i;
+                    continue;
+                }
+            }
+
+            if (c == '<' && next == '<' && (tokens & ROOM_LINK) != 0) {
+                int closeIndex = i + 2;
+                while (closeIndex < len && !Character.isWhitespace(text.charAt(closeIndex))
+                        && text.charAt(closeIndex) != '>') closeIndex++;
+                if (closeIndex > i + 2 && closeIndex + 1 < len && text.charAt(closeIndex + 1) == '>') {
+                    sink.append(text, plainStart, i);
+                    int start = sink.length();
+                    sink.append("«", 0, 1);
+                    sink.append(text, i + 2, closeIndex);
+                    sink.append("»", 0, 1);
+                    sink.setStyle(ROOM_LINK, start, sink.length(), text.subSequence(i + 2, closeIndex).toString());
+                    i = closeIndex + 2;
+                    plainStart = i;
+                    continue;
+                }
+            }
+
+            if (c == 'h' && (tokens & LINK) != 0 && (i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1)))
+                    && (startsWith(text, "http://", i) || startsWith(text, "https://", i))) {
+                int end = i;
+                while (end < len && !Character.isWhitespace(text.charAt(end))
+                        && !closesOpenDelimiter(text, end, openAt)) end++;
+                while (end > i && isTrailingPunctuation(text.charAt(end - 1))) end--;
+                sink.append(text, plainStart, i);
+                int start = sink.length();
+                sink.append(text, i, end);
+                sink.setStyle(LINK, start, sink.length(), text.subSequence(i, end).toString());
+                i = end;
+                plainStart = i;
+                continue;
+            }
+
+            i++;
+        }
+        sink.append(text, plainStart, len);
+
+        // Give back unclosed delimiters, last opened first so previous positions stay valid
+        while (true) {
+            int last = -1;
+            for (int d = 0; d < openAt.length; d++)
+                if (openAt[d] >= 0 && (last < 0 || openAt[d] > openAt[last]
+                        || (openAt[d] == openAt[last] && openOrder[d] > openOrder[last]))) last = d;
+            if (last < 0) break;
+            sink.insert(openAt[last], new String(new char[] {DELIMITERS[last], DELIMITERS[last]}));
+            openAt[last] = -1;
+        }
+    }
+
+    private static void appendSearchLink(CharSequence text, int start, int end, Sink sink) {
+        // Either [[query]] or [[label <url>]]
+        int urlStart = -1;
+        if (text.charAt(end - 1) == '>') {
+            for (int j = end - 2; j >= start; j--) {
+                if (text.charAt(j) == '<') {
+                    urlStart = j + 1;
+                    break;
+                }
+            }
+        }
+        int outStart = sink.length();
+        if (urlStart > start) {
+            int labelEnd = urlStart - 1;
+            while (labelEnd > start && text.charAt(labelEnd - 1) == ' ') labelEnd--;
+            sink.append(text, start, labelEnd);
+            sink.setStyle(LINK, outStart, sink.length(), text.subSequence(urlStart, end - 1).toString());
+        } else {
+            sink.append(text, start, end);
+            sink.setStyle(LINK, outStart, sink.length(), SEARCH_URL + text.subSequence(start, end));
+        }
+    }
+
+    private static int delimiterIndex(char c) {
+        for (int d = 0; d < DELIMITERS.length; d++)
+            if (DELIMITERS[d] == c) return d;
+        return -1;
+    }
+
+    // Links stop before the closing delimiter of an open style, so that **see http://x** is bold
+    private static boolean closesOpenDelimiter(CharSequence text, int index, int[] openAt) {
+        if (index + 1 >= text.length() || text.charAt(index) != text.charAt(index + 1)) return false;
+        int delimiter = delimiterIndex(text.charAt(index));
+        return delimiter >= 0 && openAt[delimiter] >= 0;
+    }
+
+    private static boolean isTrailingPunctuation(char c) {
+        return c == '.' || c == ',' || c == ';' || c == ':' || c == '!' || c == '?' || c == ')';
+    }
+
+    private static boolean startsWith(CharSequence text, String prefix, int from) {
+        if (from + prefix.length() > text.length()) return false;
+        for (int k = 0; k < prefix.length(); k++)
+            if (text.charAt(from + k) != prefix.charAt(k)) return false;
+        return true;
+    }
+
+    private static int indexOf(CharSequence text, CharSequence target, int from) {
+        int max = text.length() - target.length();
+        outer:
+        for (int i = from; i <= max; i++) {
+            for (int k = 0; k < target.length(); k++)
+                if (text.charAt(i + k) != target.charAt(k)) continue outer;
+            return i;
+        }
+        return -1;
+    }
+
+    private static class SpannableSink implements Sink {
+
+        private final SpannableStringBuilder mBuilder;
+
+        SpannableSink(SpannableStringBuilder builder) {
+            mBuilder = builder;
+        }
+
+        @Override
+        public int length() {
+            return mBuilder.length();
+        }
+
+        @Override
+        public void append(CharSequence text, int start, int end) {
+            if (start < end) mBuilder.append(text, start, end);
+        }
+
+        @Override
+        public void insert(int where, CharSequence text) {
+            mBuilder.insert(where, text);
+        }
+
+        @Override
+        public void setStyle(int style, int start, int end, String param) {
+            switch (style) {
+                case BOLD:
+                    setSpan(new StyleSpan(Typeface.BOLD), start, end);
+                    break;
+                case ITALIC:
+                    setSpan(new StyleSpan(Typeface.ITALIC), start, end);
+                    break;
+                case STRIKETHROUGH:
+                    setSpan(new StrikethroughSpan(), start, end);
+                    break;
+                case SUPERSCRIPT:
+                    setSpan(new SuperscriptSpan(), start, end);
+                    setSpan(new RelativeSizeSpan(0.8f), start, end);
+                    break;
+                case SUBSCRIPT:
+                    setSpan(new SubscriptSpan(), start, end);
+                    setSpan(new RelativeSizeSpan(0.8f), start, end);
+                    break;
+                case CODE:
+                    if (Utils.isApi28()) setSpan(new TypefaceSpan(Typeface.MONOSPACE), start, end);
+                    else setSpan(new TypefaceSpan("monospace"), start, end);
+                    break;
+                case LINK:
+                    setSpan(new URLSpan(param), start, end);
+                    break;
+                case ROOM_LINK:
+                    setSpan(new ChatCommandSpan("/join " + param), start, end);
+                    break;
+            }
+        }
+
+        private void setSpan(Object span, int start, int end) {
+            mBuilder.setSpan(span, start, end, Spannable.SPAN_INCLUSIVE_EXCLUSIVE);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.majeur.psclient.util;
 
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -28,6 +29,31 @@ public class MD5 {
         return sBuilder.toString();
     }
 
+    /**
+     * Digests {@code in} straight into {@code out} (at least 16 bytes long) without building
+     * any intermediate byte array or hex string. Ascii chars are fed one by one, which is always
+     * the case for user ids.
+     */
+    public static boolean digest(String in, byte[] out) {
+        if (!checkAlgorithm()) return false;
+        for (int i = 0; i < in.length(); i++) {
+            char c = in.charAt(i);
+            if (c > 0x7f) {
+                sMessageDigest.reset();
+                sMessageDigest.update(in.getBytes());
+                break;
+            }
+            sMessageDigest.update((byte) c);
+        }
+        try {
+            sMessageDigest.digest(out, 0, 16);
+            return true;
+        } catch (DigestException e) {
+            sMessageDigest.reset();
+            return false;
+        }
+    }
+
     private static boolean checkAlgorithm() {
         if (sMessageDigest != null) return true;
         try {
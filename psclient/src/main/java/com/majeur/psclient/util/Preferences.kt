@@ -7,6 +7,7 @@ object Preferences {
     private const val PREF_NAME = "user-preferences"
     private const val KEY_NEWS_BANNER = "news-banner-enabled"
     private const val KEY_BATTLE_SOUND = "battle-sound-enabled"
+    private const val KEY_PING_INTERVAL = "ping-interval"
 
     fun isNewsBannerEnabled(c: Context) = readBool(c, KEY_NEWS_BANNER, true)
     fun setNewsBannerEnabled(c: Context, value: Boolean) = writeBool(c, KEY_NEWS_BANNER, value)
@@ -14,9 +15,14 @@ object Preferences {
     fun isBattleSoundEnabled(c: Context) = readBool(c, KEY_BATTLE_SOUND, true)
     fun setBattleSoundEnabled(c: Context, value: Boolean) = writeBool(c, KEY_BATTLE_SOUND, value)
 
+    // In seconds, 0 disables keepalive pings
+    fun getPingInterval(c: Context) = readInt(c, KEY_PING_INTERVAL, 25)
+
     private fun readBool(c: Context, key: String, def: Boolean) = get(c).getBoolean(key, def)
     private fun writeBool(c: Context, key: String, value: Boolean) = get(c).edit().putBoolean(key, value).apply()
 
+    private fun readInt(c: Context, key: String, def: Int) = get(c).getInt(key, def)
+
     private fun get(c: Context) = c.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE)
 
 }
\ No newline at end of file
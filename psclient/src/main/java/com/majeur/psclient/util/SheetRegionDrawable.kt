@@ -0,0 +1,35 @@
+package com.majeur.psclient.util
+
+import android.graphics.*
+import android.graphics.drawable.Drawable
+
+/**
+ * Draws one region of a sprite sheet, rows of a list can then share a single decoded sheet
+ * and only move [region] when they are bound.
+ */
+class SheetRegionDrawable(private val sheet: Bitmap) : Drawable() {
+
+    val region = Rect()
+    private val paint = Paint(Paint.FILTER_BITMAP_FLAG)
+
+    override fun draw(canvas: Canvas) {
+        if (!region.isEmpty) canvas.drawBitmap(sheet, region, bounds, paint)
+    }
+
+    override fun setAlpha(alpha: Int) {
+        paint.alpha = alpha
+        invalidateSelf()
+    }
+
+    override fun setColorFilter(colorFilter: ColorFilter?) {
+        paint.colorFilter = colorFilter
+        invalidateSelf()
+    }
+
+    @Suppress("DEPRECATION")
+    override fun getOpacity() = PixelFormat.TRANSLUCENT
+
+    override fun getIntrinsicWidth() = region.width()
+
+    override fun getIntrinsicHeight() = region.height()
+}
@@ -0,0 +1,106 @@
+package com.majeur.psclient.util
+
+import android.graphics.Color
+import android.graphics.Typeface
+import android.text.Spannable
+import android.text.SpannableStringBuilder
+import android.text.style.BackgroundColorSpan
+import android.text.style.ForegroundColorSpan
+import android.text.style.RelativeSizeSpan
+import android.text.style.StyleSpan
+import android.text.style.URLSpan
+import android.view.View
+import com.majeur.psclient.util.html.ClickableSpan
+
+inline fun buildSpanned(block: SpanBuilder.() -> Unit): CharSequence = SpanBuilder().apply(block).build()
+
+/**
+ * Appends styled segments into a single growing [SpannableStringBuilder], unlike the [CharSequence]
+ * extensions which copy the text for every style and every [concat].
+ * When a segment directly follows a segment of the same style, the previous span is extended
+ * instead of allocating a new one.
+ */
+class SpanBuilder(private val builder: SpannableStringBuilder = SpannableStringBuilder()) {
+
+    private val lastSpans = mutableMapOf<Long, Any>()
+
+    val length get() = builder.length
+
+    fun append(text: CharSequence?): SpanBuilder {
+        if (text != null) builder.append(text)
+        return this
+    }
+
+    fun append(value: Int) = append(value.toString())
+
+    inline fun bold(block: SpanBuilder.() -> Unit) = styled(STYLE_BOLD, 0, block)
+    inline fun italic(block: SpanBuilder.() -> Unit) = styled(STYLE_ITALIC, 0, block)
+    inline fun small(block: SpanBuilder.() -> Unit) = relSize(0.8f, block)
+    inline fun big(block: SpanBuilder.() -> Unit) = relSize(1.2f, block)
+    inline fun relSize(relSize: Float, block: SpanBuilder.() -> Unit) = styled(STYLE_REL_SIZE, relSize.toRawBits(), block)
+    inline fun color(color: Int, block: SpanBuilder.() -> Unit) = styled(STYLE_COLOR, color, block)
+    inline fun bg(color: Int, block: SpanBuilder.() -> Unit) = styled(STYLE_BG, color, block)
+
+    // Tags are drawn as individual boxes, so they never get merged with a previous one
+    inline fun tag(color: Int, textColor: Int = Color.WHITE, block: SpanBuilder.() -> Unit) =
+            span(TextTagSpan(color, textColor), block)
+    inline fun url(url: String, block: SpanBuilder.() -> Unit) = span(URLSpan(url), block)
+    inline fun clickable(noinline onClick: (View) -> Unit, block: SpanBuilder.() -> Unit) =
+            span(ClickableSpan(onClick), block)
+
+    fun bold(text: CharSequence) = bold { append(text) }
+    fun italic(text: CharSequence) = italic { append(text) }
+    fun small(text: CharSequence) = small { append(text) }
+    fun big(text: CharSequence) = big { append(text) }
+    fun color(color: Int, text: CharSequence) = color(color) { append(text) }
+    fun tag(color: Int, text: CharSequence) = tag(color) { append(text) }
+
+    inline fun styled(style: Int, param: Int, block: SpanBuilder.() -> Unit): SpanBuilder {
+        val start = length
+        block()
+        applyStyle(style, param, start, length)
+        return this
+    }
+
+    inline fun span(what: Any, block: SpanBuilder.() -> Unit): SpanBuilder {
+        val start = length
+        block()
+        if (length > start) setSpan(what, start, length)
+        return this
+    }
+
+    @PublishedApi
+    internal fun applyStyle(style: Int, param: Int, start: Int, end: Int) {
+        if (end <= start) return
+        val key = style.toLong() shl 32 or (param.toLong() and 0xFFFFFFFFL)
+        val previous = lastSpans[key]
+        if (previous != null && builder.getSpanEnd(previous) == start) {
+            setSpan(previous, builder.getSpanStart(previous), end)
+            return
+        }
+        val span = when (style) {
+            STYLE_BOLD -> StyleSpan(Typeface.BOLD)
+            STYLE_ITALIC -> StyleSpan(Typeface.ITALIC)
+            STYLE_REL_SIZE -> RelativeSizeSpan(Float.fromBits(param))
+            STYLE_COLOR -> ForegroundColorSpan(param)
+            STYLE_BG -> BackgroundColorSpan(param)
+            else -> throw IllegalArgumentException("Unknown style: $style")
+        }
+        lastSpans[key] = span
+        setSpan(span, start, end)
+    }
+
+    @PublishedApi
+    internal fun setSpan(what: Any, start: Int, end: Int) =
+            builder.setSpan(what, start, end, Spannable.SPAN_INCLUSIVE_EXCLUSIVE)
+
+    fun build(): CharSequence = builder
+
+    companion object {
+        const val STYLE_BOLD = 0
+        const val STYLE_ITALIC = 1
+        const val STYLE_REL_SIZE = 2
+        const val STYLE_COLOR = 3
+        const val STYLE_BG = 4
+    }
+}
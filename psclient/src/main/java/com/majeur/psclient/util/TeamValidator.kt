@@ -0,0 +1,147 @@
+package com.majeur.psclient.util
+
+import com.majeur.psclient.io.AssetLoader
+import com.majeur.psclient.model.common.BattleFormat
+import com.majeur.psclient.model.common.Stats
+import com.majeur.psclient.model.common.toId
+import com.majeur.psclient.model.pokemon.TeamPokemon
+import java.util.*
+
+/**
+ * Catches obvious team mistakes before the server does. Species met so far are kept in compact
+ * tables, their learnset being a sorted array of move indexes, so checking a pokemon is only made
+ * of lookups and can run after every edit. Server stays the reference, we only report what is
+ * certainly wrong. Tables are only touched from the main thread.
+ */
+class TeamValidator(private val assetLoader: AssetLoader) {
+
+    class Problem(val slot: Int, val message: String) {
+        override fun toString() = message
+    }
+
+    private class SpeciesEntry(
+            val name: String,
+            val num: Int,
+            val requiredItem: String?,
+            // Empty when we do not know the learnset, moves are not checked then
+            val learnset: IntArray,
+            val learnsAnyMove: Boolean)
+
+    private val moveIndexes = HashMap<String, Int>()
+    private val entries = HashMap<String, SpeciesEntry?>()
+
+    // Formats where anything goes or that we do not know anything about
+    fun appliesTo(format: String?): Boolean {
+        val formatId = format?.toId() ?: return false
+        return formatId != BattleFormat.FORMAT_OTHER.toId() && !formatId.contains("hackmons") &&
+                !formatId.contains("custom")
+    }
+
+    // Builds tables of the species we have not met yet
+    suspend fun prepare(speciesIds: Collection<String>) {
+        val missingIds = speciesIds.filterTo(HashSet()) { it.isNotEmpty() && !entries.containsKey(it) }
+        if (missingIds.isEmpty()) return
+        val dexPokemons = assetLoader.dexPokemons(missingIds)
+        missingIds.forEach { speciesId ->
+            val dexPokemon = dexPokemons[speciesId]
+            if (dexPokemon == null) {
+                entries[speciesId] = null
+                return@forEach
+            }
+            val learnset = assetLoader.learnset(speciesId) ?: emptyList()
+            entries[speciesId] = SpeciesEntry(dexPokemon.species, dexPokemon.num, dexPokemon.requiredItem,
+                    learnset.map { moveIndex(it) }.toIntArray().apply { sort() }, learnset.contains("sketch"))
+        }
+    }
+
+    suspend fun prepare(pokemons: List<TeamPokemon>) = prepare(pokemons.map { it.species.toId() })
+
+    fun validate(format: String?, pokemons: List<TeamPokemon>): List<Problem> {
+        val problems = mutableListOf<Problem>()
+        val gen = generation(format)
+        pokemons.indices.forEach { slot -> validatePokemon(gen, pokemons, slot, slot, problems) }
+        return problems
+    }
+
+    // Duplicates are looked for in the whole team, not only in the slots before this one
+    fun validate(format: String?, pokemons: List<TeamPokemon>, slot: Int): List<Problem> {
+        val problems = mutableListOf<Problem>()
+        validatePokemon(generation(format), pokemons, slot, pokemons.size, problems)
+        return problems
+    }
+
+    private fun validatePokemon(gen: Int, pokemons: List<TeamPokemon>, slot: Int, clauseEnd: Int,
+                                problems: MutableList<Problem>) {
+        val pokemon = pokemons[slot]
+        val speciesId = pokemon.species.toId()
+        if (speciesId.isEmpty()) return
+        val entry = entries[speciesId]
+        if (entry == null) {
+            if (entries.containsKey(speciesId)) problems.add(Problem(slot, "${pokemon.species} does not exist in current dex"))
+            return
+        }
+        val name = entry.name
+
+        if (pokemon.level !in 1..100) problems.add(Problem(slot, "$name level must be between 1 and 100"))
+        for (i in 0 until 6) {
+            val ev = pokemon.evs.get(i)
+            if (ev !in 0..MAX_EV) problems.add(Problem(slot, "$name ${Stats.getName(i)} EVs must be between 0 and $MAX_EV"))
+            val iv = pokemon.ivs.get(i)
+            if (iv !in 0..MAX_IV) problems.add(Problem(slot, "$name ${Stats.getName(i)} IVs must be between 0 and $MAX_IV"))
+        }
+        // Stat experience of gens 1 and 2 has no total limit
+        val evSum = pokemon.evs.sum()
+        if (gen >= 3 && evSum > MAX_EV_SUM) problems.add(Problem(slot, "$name has $evSum EVs, which is more than $MAX_EV_SUM"))
+
+        val moves = pokemon.moves
+        for (i in moves.indices) {
+            val moveId = moveId(moves[i])
+            if (moveId.isEmpty()) continue
+            var repeated = false
+            for (j in 0 until i) if (moveId(moves[j]) == moveId) repeated = true
+            if (repeated) {
+                problems.add(Problem(slot, "$name has ${moves[i]} more than once"))
+                continue
+            }
+            if (entry.learnset.isEmpty() || entry.learnsAnyMove) continue
+            val index = moveIndexes[moveId]
+            if (index == null || Arrays.binarySearch(entry.learnset, index) < 0)
+                problems.add(Problem(slot, "$name can't learn ${moves[i]}"))
+        }
+
+        val requiredItem = entry.requiredItem
+        if (requiredItem != null && pokemon.item.toId() != requiredItem.toId())
+            problems.add(Problem(slot, "$name must hold $requiredItem"))
+
+        for (other in 0 until clauseEnd) {
+            if (other == slot) continue
+            val otherEntry = entries[pokemons[other].species.toId()] ?: continue
+            if (otherEntry.num == entry.num) {
+                problems.add(Problem(slot, "Species Clause: $name is already in the team"))
+                break
+            }
+        }
+    }
+
+    private fun moveIndex(moveId: String) = moveIndexes.getOrPut(moveId(moveId)) { moveIndexes.size }
+
+    companion object {
+        private const val MAX_EV = 252
+        private const val MAX_EV_SUM = 510
+        private const val MAX_IV = 31
+        private const val CURRENT_GEN = 8
+        private val GEN_PREFIX = Regex("^gen(\\d+)")
+
+        // Formats without generation prefix are the current generation ones
+        private fun generation(format: String?): Int {
+            val formatId = format?.toId() ?: return CURRENT_GEN
+            return GEN_PREFIX.find(formatId)?.groupValues?.get(1)?.toIntOrNull() ?: CURRENT_GEN
+        }
+
+        // Learnsets only know about the generic Hidden Power
+        private fun moveId(move: String): String {
+            val moveId = move.toId()
+            return if (moveId.startsWith("hiddenpower")) "hiddenpower" else moveId
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.majeur.psclient.util
+
+import timber.log.Timber
+import java.io.*
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Process wide username to color cache. Colors only depend on the username so there is no
+ * reason to compute them again when switching rooms. Restored with [restore], new colors are then
+ * written on a background thread a little while after they are computed, or right away with [flush].
+ */
+object UsernameColors {
+
+    private const val MAX_ENTRIES = 1024
+    private const val FILE_NAME = "username_colors"
+    private const val FILE_VERSION = 1
+    private const val PERSIST_DELAY = 10L // Seconds, colors come in bursts when joining rooms
+
+    private val cache = object : LinkedHashMap<String, Int>(64, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Int>?) = size > MAX_ENTRIES
+    }
+
+    private val writeExecutor = Executors.newSingleThreadScheduledExecutor()
+    private var cacheDir: File? = null
+    private var dirty = false
+    private var persistScheduled = false
+
+    // Keyed by raw username (it may still hold its rank prefix) to skip toId() on cache hits
+    @Synchronized fun get(username: String): Int {
+        cache[username]?.let { return it }
+        return Utils.hashColor(username.toId()).also {
+            cache[username] = it
+            dirty = true
+            schedulePersist(PERSIST_DELAY)
+        }
+    }
+
+    // Writes pending colors without waiting, for when the ui goes away
+    @Synchronized fun flush() {
+        if (dirty) schedulePersist(0)
+    }
+
+    private fun schedulePersist(delay: Long) {
+        if (cacheDir == null || (persistScheduled && delay > 0)) return
+        persistScheduled = true
+        writeExecutor.schedule({ persist() }, delay, TimeUnit.SECONDS)
+    }
+
+    @Synchronized fun restore(cacheDir: File) {
+        this.cacheDir = cacheDir
+        // Colors computed before the restore are written along with the restored ones
+        if (dirty) schedulePersist(PERSIST_DELAY)
+        val file = File(cacheDir, FILE_NAME)
+        if (!file.exists()) return
+        try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                if (input.readInt() != FILE_VERSION) return
+                val count = input.readInt().coerceAtMost(MAX_ENTRIES)
+                repeat(count) {
+                    val username = input.readUTF()
+                    val color = input.readInt()
+                    if (!cache.containsKey(username)) cache[username] = color
+                }
+            }
+        } catch (e: IOException) {
+            Timber.w(e, "Could not restore username colors.")
+        }
+    }
+
+    // Runs on the write executor, the cache is only locked while it is copied
+    private fun persist() {
+        val cacheDir: File
+        val usernames: Array<String>
+        val colors: IntArray
+        synchronized(this) {
+            persistScheduled = false
+            cacheDir = this.cacheDir ?: return
+            if (!dirty) return
+            dirty = false
+            usernames = cache.keys.toTypedArray()
+            colors = cache.values.toIntArray()
+        }
+        val file = File(cacheDir, FILE_NAME)
+        val tmpFile = File(cacheDir, "$FILE_NAME.tmp")
+        try {
+            DataOutputStream(BufferedOutputStream(FileOutputStream(tmpFile))).use { output ->
+                output.writeInt(FILE_VERSION)
+                output.writeInt(usernames.size)
+                usernames.forEachIndexed { i, username ->
+                    output.writeUTF(username)
+                    output.writeInt(colors[i])
+                }
+            }
+            if (!tmpFile.renameTo(file)) throw IOException("Could not replace username colors file")
+        } catch (e: IOException) {
+            Timber.w(e, "Could not persist username colors.")
+            tmpFile.delete()
+            synchronized(this) { dirty = true }
+        }
+    }
+}
@@ -13,8 +13,6 @@ import android.text.style.ClickableSpan;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.RelativeSizeSpan;
 import android.text.style.StyleSpan;
-import android.text.style.TypefaceSpan;
-import android.text.style.URLSpan;
 import android.view.MotionEvent;
 import android.view.View;
 import android.widget.ScrollView;
@@ -86,22 +84,26 @@ public class Utils {
         return false;
     }
 
-    public static int hashColor(String string) {
-        String md5 = MD5.hash(string);
-        if (md5 != null)
-            return md5Color(md5);
+    private static final byte[] sHashBytes = new byte[16];
+    private static final float[] sRgb = new float[3];
+
+    public static synchronized int hashColor(String string) {
+        if (MD5.digest(string, sHashBytes))
+            return md5Color(sHashBytes);
         else
             return sinColor(string);
     }
 
-    private static int md5Color(String hash) {
-        float H = parseInt(substringlen(hash, 4, 4), 16) % 360f; // 0 to 360
-        float S = parseInt(substringlen(hash, 0, 4), 16) % 50f + 40; // 40 to 89
-        float L = (float) Math.floor(parseInt(substringlen(hash, 8, 4), 16) % 20f + 30); // 30 to 49
-        float[] rgb = hslToRgb(H, S, L);
-        float R = rgb[0];
-        float G = rgb[1];
-        float B = rgb[2];
+    // Same as showdown's client hashColor(), but reading the md5 hex digits we need straight
+    // from the digest bytes: hex chars [0,4[ are bytes 0-1, [4,8[ bytes 2-3 and [8,12[ bytes 4-5.
+    private static int md5Color(byte[] hash) {
+        float H = readUnsignedShort(hash, 2) % 360f; // 0 to 360
+        float S = readUnsignedShort(hash, 0) % 50f + 40; // 40 to 89
+        float L = (float) Math.floor(readUnsignedShort(hash, 4) % 20f + 30); // 30 to 49
+        hslToRgb(H, S, L, sRgb);
+        float R = sRgb[0];
+        float G = sRgb[1];
+        float B = sRgb[2];
         float lum = R * R * R * 0.2126f + G * G * G * 0.7152f + B * B * B * 0.0722f; // 0.013 (dark blue) to 0.737 (yellow)
         float HLmod = (lum - 0.2f) * -150; // -80 (yellow) to 28 (dark blue)
         if (HLmod > 18) HLmod = (HLmod - 18) * 2.5f;
@@ -113,14 +115,21 @@ public class Utils {
             HLmod += (15 - Hdist) / 3f;
         }
         L += HLmod;
-        rgb =hslToRgb(H, S, L);
-        R = rgb[0];
-        G = rgb[1];
-        B = rgb[2];
-        return rgb(R, G, B);
+        hslToRgb(H, S, L, sRgb);
+        return rgb(sRgb[0], sRgb[1], sRgb[2]);
+    }
+
+    private static int readUnsignedShort(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
     }
 
     public static float[] hslToRgb(float h, float s, float l){
+        float[] rgb = new float[3];
+        hslToRgb(h, s, l, rgb);
+        return rgb;
+    }
+
+    private static void hslToRgb(float h, float s, float l, float[] out){
         float C = (100 - Math.abs(2 * l - 100)) * s / 100 / 100;
         float X = C * (1 - Math.abs((h / 60) % 2 - 1));
         float m = l / 100 - C / 2;
@@ -133,7 +142,9 @@ public class Utils {
             case 5: R = C; G = 0; B = X; break;
             case 0: default: R = C; G = X; B = 0; break;
         }
-        return new float[] {R + m, G + m, B + m};
+        out[0] = R + m;
+        out[1] = G + m;
+        out[2] = B + m;
     }
 
     private static int sinColor(String username) {
@@ -313,62 +324,6 @@ public class Utils {
         return spannableString;
     }
 
-    public static CharSequence parseBoldTags(String string) {
-        if (!string.contains("**")) return string;
-        SpannableStringBuilder spannable = new SpannableStringBuilder(string);
-        int openIndex, closeIndex = -1;
-        while ((openIndex = string.indexOf("**", closeIndex + 1)) != -1) {
-            if ((closeIndex = string.indexOf("**", openIndex + 1)) == -1) break;
-            spannable.delete(openIndex, openIndex + 2);
-            closeIndex -= 2;
-            spannable.delete(closeIndex, closeIndex + 2);
-            spannable.setSpan(new StyleSpan(Typeface.BOLD), openIndex, closeIndex, Spannable.SPAN_INCLUSIVE_EXCLUSIVE);
-        }
-        return spannable;
-    }
-
-    private static final String[] MD_TOKENS_OP = {"**", "__", "~~", "```", "[[", "http", "https"};
-    private static final String[] MD_TOKENS_CL = {"**", "__", "~~", "```", "]]", " ", " "};
-    private static final Factory[] MD_SPANS = {(p) -> new StyleSpan(Typeface.BOLD), (p) -> new StyleSpan(Typeface.ITALIC),
-            (p) -> new StyleSpan(Typeface.BOLD_ITALIC), (p) -> isApi28() ? new TypefaceSpan(Typeface.MONOSPACE) : new Object(), (p) -> new URLSpan((String) p),
-            (p) -> new URLSpan((String) p), (p) -> new URLSpan((String) p)};
-
-
-    private interface Factory {
-        Object get(Object param);
-    }
-
-    public static void applyStylingTags(SpannableStringBuilder builder) {
-        int openIndex, closeIndex;
-        String tokenOpen, tokenClose;
-        Object span;
-        for (int i = 0; i < MD_TOKENS_OP.length; i++) {
-            tokenOpen = MD_TOKENS_OP[i];
-            tokenClose = MD_TOKENS_CL[i];
-            closeIndex = -1;
-            boolean urlToken = tokenOpen.contains("http");
-            while ((openIndex = builder.indexOf(tokenOpen, closeIndex + 1)) != -1) {
-                if ((closeIndex = builder.indexOf(tokenClose, openIndex + 1)) == -1 && !urlToken) break; // Leave a chance to close an url span
-                if (!urlToken) {
-                    builder.delete(openIndex, openIndex + tokenOpen.length());
-                    closeIndex -= tokenOpen.length();
-                    builder.delete(closeIndex, closeIndex + tokenClose.length());
-                    span = MD_SPANS[i].get("");
-                } else {
-                    if (closeIndex == -1 || closeIndex >= builder.length()) closeIndex = builder.length(); // Url end token not found, so we are at the end of our string
-                    span = MD_SPANS[i].get(builder.substring(openIndex, closeIndex));
-                }
-                builder.setSpan(span, openIndex, closeIndex, Spannable.SPAN_INCLUSIVE_EXCLUSIVE);
-            }
-        }
-    }
-
-    public static String specChars(String string) {
-        return string
-                .replace("<<", "«")
-                .replace(">>", "»");
-    }
-
     public static String prepareForHtml(String string) {
         return string
                 .replace("&ThickSpace;", "  ");
@@ -16,6 +16,8 @@ abstract class AnimatedImageViewTarget(im: ImageView)
         getView().setImageDrawable(resource)
         if (resource is Animatable) {
             animatable = resource
+            // Older platforms don't hide drawables of views inside hidden parents
+            resource.setVisible(getView().isShown, false)
             resource.start()
         } else {
             animatable = null
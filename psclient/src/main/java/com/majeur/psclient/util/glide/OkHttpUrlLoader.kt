@@ -0,0 +1,86 @@
+package com.majeur.psclient.util.glide
+
+import com.bumptech.glide.Priority
+import com.bumptech.glide.load.DataSource
+import com.bumptech.glide.load.HttpException
+import com.bumptech.glide.load.Options
+import com.bumptech.glide.load.data.DataFetcher
+import com.bumptech.glide.load.model.GlideUrl
+import com.bumptech.glide.load.model.ModelLoader
+import com.bumptech.glide.load.model.ModelLoaderFactory
+import com.bumptech.glide.load.model.MultiModelLoaderFactory
+import com.bumptech.glide.util.ContentLengthInputStream
+import okhttp3.*
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * Fetches Glide's network loads through our OkHttpClient, so they share its connection pool,
+ * DNS and TLS sessions instead of opening their own HttpURLConnections.
+ */
+class OkHttpUrlLoader(private val client: Call.Factory) : ModelLoader<GlideUrl, InputStream> {
+
+    override fun handles(model: GlideUrl) = true
+
+    override fun buildLoadData(model: GlideUrl, width: Int, height: Int, options: Options) =
+            ModelLoader.LoadData(model, OkHttpStreamFetcher(client, model))
+
+    class Factory(private val client: Call.Factory) : ModelLoaderFactory<GlideUrl, InputStream> {
+
+        override fun build(multiFactory: MultiModelLoaderFactory) = OkHttpUrlLoader(client)
+
+        override fun teardown() = Unit
+    }
+
+    private class OkHttpStreamFetcher(
+            private val client: Call.Factory,
+            private val url: GlideUrl
+    ) : DataFetcher<InputStream>, Callback {
+
+        private var callback: DataFetcher.DataCallback<in InputStream>? = null
+        private var responseBody: ResponseBody? = null
+        private var stream: InputStream? = null
+        @Volatile private var call: Call? = null
+
+        override fun loadData(priority: Priority, callback: DataFetcher.DataCallback<in InputStream>) {
+            val request = Request.Builder().url(url.toStringUrl()).apply {
+                url.headers.forEach { (name, value) -> addHeader(name, value) }
+            }.build()
+            this.callback = callback
+            call = client.newCall(request).also { it.enqueue(this) }
+        }
+
+        override fun onFailure(call: Call, e: IOException) {
+            callback?.onLoadFailed(e)
+        }
+
+        override fun onResponse(call: Call, response: Response) {
+            val body = response.body()
+            responseBody = body
+            if (response.isSuccessful && body != null) {
+                stream = ContentLengthInputStream.obtain(body.byteStream(), body.contentLength())
+                callback?.onDataReady(stream)
+            } else {
+                callback?.onLoadFailed(HttpException(response.message(), response.code()))
+            }
+        }
+
+        override fun cleanup() {
+            try {
+                stream?.close()
+            } catch (e: IOException) {
+                // Ignored
+            }
+            responseBody?.close()
+            callback = null
+        }
+
+        override fun cancel() {
+            call?.cancel()
+        }
+
+        override fun getDataClass() = InputStream::class.java
+
+        override fun getDataSource() = DataSource.REMOTE
+    }
+}
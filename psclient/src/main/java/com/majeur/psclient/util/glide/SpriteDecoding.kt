@@ -0,0 +1,70 @@
+package com.majeur.psclient.util.glide
+
+import com.bumptech.glide.Glide
+import com.bumptech.glide.Registry
+import com.bumptech.glide.load.Option
+import com.bumptech.glide.load.Options
+import com.bumptech.glide.load.ResourceDecoder
+import com.bumptech.glide.load.engine.Resource
+import com.bumptech.glide.load.resource.bitmap.DownsampleStrategy
+import com.bumptech.glide.load.resource.gif.ByteBufferGifDecoder
+import com.bumptech.glide.load.resource.gif.GifDrawable
+import com.bumptech.glide.load.resource.gif.StreamGifDecoder
+import com.bumptech.glide.request.target.Target
+import java.io.InputStream
+import java.nio.ByteBuffer
+import kotlin.math.max
+
+/**
+ * Lets sprites be decoded at the size they are drawn at, their final size is only known once the
+ * source size is, so they are loaded with [Target.SIZE_ORIGINAL] and a [SAMPLE_SIZE] instead.
+ * Sample sizes are powers of two, which is all the gif decoder supports, decoded sprites are
+ * exactly sample size times smaller than their source.
+ */
+object SpriteDecoding {
+
+    val SAMPLE_SIZE: Option<Int> = Option.memory("com.majeur.psclient.SpriteSampleSize", 1)
+
+    // Sprites drawn larger than their source are never upscaled at decode time
+    fun sampleSizeFor(scale: Float): Int {
+        if (scale <= 0f || scale >= 0.5f) return 1
+        return Integer.highestOneBit((1f / scale).toInt())
+    }
+
+    fun downsampleStrategy(sampleSize: Int): DownsampleStrategy = SampledDownsampleStrategy(sampleSize)
+
+    fun register(glide: Glide, registry: Registry) {
+        val gifDecoder = SampledGifDecoder(ByteBufferGifDecoder(glide.context, registry.imageHeaderParsers,
+                glide.bitmapPool, glide.arrayPool))
+        registry.prepend(Registry.BUCKET_GIF, ByteBuffer::class.java, GifDrawable::class.java, gifDecoder)
+                .prepend(Registry.BUCKET_GIF, InputStream::class.java, GifDrawable::class.java,
+                        StreamGifDecoder(registry.imageHeaderParsers, gifDecoder, glide.arrayPool))
+    }
+
+    private data class SampledDownsampleStrategy(private val sampleSize: Int) : DownsampleStrategy() {
+
+        override fun getScaleFactor(sourceWidth: Int, sourceHeight: Int, requestedWidth: Int, requestedHeight: Int) =
+                1f / sampleSize
+
+        override fun getSampleSizeRounding(sourceWidth: Int, sourceHeight: Int, requestedWidth: Int, requestedHeight: Int) =
+                SampleSizeRounding.QUALITY
+    }
+
+    private class SampledGifDecoder(private val decoder: ResourceDecoder<ByteBuffer, GifDrawable>)
+        : ResourceDecoder<ByteBuffer, GifDrawable> {
+
+        override fun handles(source: ByteBuffer, options: Options) = decoder.handles(source, options)
+
+        override fun decode(source: ByteBuffer, width: Int, height: Int, options: Options): Resource<GifDrawable>? {
+            val sampleSize = options.get(SAMPLE_SIZE) ?: 1
+            if (sampleSize <= 1 || width != Target.SIZE_ORIGINAL || source.remaining() < 10)
+                return decoder.decode(source, width, height, options)
+            // Logical screen size follows the 6 bytes signature, as little endian shorts
+            val offset = source.position()
+            val sourceWidth = (source.get(offset + 6).toInt() and 0xFF) or ((source.get(offset + 7).toInt() and 0xFF) shl 8)
+            val sourceHeight = (source.get(offset + 8).toInt() and 0xFF) or ((source.get(offset + 9).toInt() and 0xFF) shl 8)
+            // Decoder picks the largest power of two that fits the ratio, which is our sample size
+            return decoder.decode(source, max(1, sourceWidth / sampleSize), max(1, sourceHeight / sampleSize), options)
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.majeur.psclient.util.glide
+
+import com.bumptech.glide.Priority
+import com.bumptech.glide.load.DataSource
+import com.bumptech.glide.load.Options
+import com.bumptech.glide.load.data.DataFetcher
+import com.bumptech.glide.load.model.GlideUrl
+import com.bumptech.glide.load.model.ModelLoader
+import com.bumptech.glide.load.model.ModelLoaderFactory
+import com.bumptech.glide.load.model.MultiModelLoaderFactory
+import com.bumptech.glide.signature.ObjectKey
+import com.majeur.psclient.io.GlideHelper.Sprite
+import com.majeur.psclient.io.SpritePack
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * Serves sprites from the installed [SpritePack], sprites it doesn't hold are loaded from the
+ * server through the regular [GlideUrl] loader.
+ */
+class SpritePackLoader(private val urlLoader: ModelLoader<GlideUrl, InputStream>) : ModelLoader<Sprite, InputStream> {
+
+    override fun handles(model: Sprite) = true
+
+    override fun buildLoadData(model: Sprite, width: Int, height: Int, options: Options): ModelLoader.LoadData<InputStream>? {
+        val pack = SpritePack.current
+        val key = model.key
+        if (pack != null && key in pack)
+            return ModelLoader.LoadData(ObjectKey(key), PackFetcher(pack, key))
+        return urlLoader.buildLoadData(GlideUrl(model.uri.toString()), width, height, options)
+    }
+
+    class Factory : ModelLoaderFactory<Sprite, InputStream> {
+
+        override fun build(multiFactory: MultiModelLoaderFactory) =
+                SpritePackLoader(multiFactory.build(GlideUrl::class.java, InputStream::class.java))
+
+        override fun teardown() = Unit
+    }
+
+    private class PackFetcher(private val pack: SpritePack, private val key: String) : DataFetcher<InputStream> {
+
+        override fun loadData(priority: Priority, callback: DataFetcher.DataCallback<in InputStream>) {
+            try {
+                val bytes = pack.read(key) ?: throw IOException("Sprite not in pack: $key")
+                callback.onDataReady(ByteArrayInputStream(bytes))
+            } catch (e: IOException) {
+                callback.onLoadFailed(e)
+            }
+        }
+
+        override fun cleanup() = Unit
+
+        override fun cancel() = Unit
+
+        override fun getDataClass() = InputStream::class.java
+
+        override fun getDataSource() = DataSource.LOCAL
+    }
+}
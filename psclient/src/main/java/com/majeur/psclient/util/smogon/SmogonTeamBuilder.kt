@@ -1,102 +1,138 @@
 package com.majeur.psclient.util.smogon
 
 import com.majeur.psclient.io.AssetLoader
+import com.majeur.psclient.model.battle.Move
+import com.majeur.psclient.model.common.Item
 import com.majeur.psclient.model.common.Nature
+import com.majeur.psclient.model.common.PackedTeamCodec
 import com.majeur.psclient.model.common.Stats
 import com.majeur.psclient.model.common.Team
+import com.majeur.psclient.model.pokemon.DexPokemon
 import com.majeur.psclient.model.pokemon.TeamPokemon
 import com.majeur.psclient.util.toId
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.io.StringWriter
+import java.io.Writer
 import java.util.*
 
 object SmogonTeamBuilder {
 
+    // Assets needed to turn the ids of some teams back into display names, by id
+    private class Names(
+            val dexPokemons: Map<String, DexPokemon?>,
+            val items: Map<String, Item?>,
+            val moves: Map<String, Move.Details?>)
+
     suspend fun buildTeams(assetLoader: AssetLoader, teams: List<Team>): String {
-        val builder = StringBuilder()
-        buildTeams(builder, assetLoader, teams)
-        return builder.toString()
+        val writer = StringWriter()
+        writeTeams(assetLoader, teams, writer)
+        return writer.toString()
     }
 
-    private suspend fun buildTeams(builder: StringBuilder, assetLoader: AssetLoader, teams: List<Team>) {
-        for (team in teams) {
-            buildTeam(builder, assetLoader, team, headers = teams.size > 1)
+    /**
+     * Streams [teams] in Smogon format to [writer]. Species, items and moves used across all teams are
+     * read from packed data and resolved with one batched lookup first, teams are then unpacked and
+     * written one at a time, so that each of them is only unpacked once.
+     */
+    suspend fun writeTeams(assetLoader: AssetLoader, teams: List<Team>, writer: Writer) {
+        val speciesIds = HashSet<String>()
+        val itemIds = HashSet<String>()
+        val moveIds = HashSet<String>()
+        withContext(Dispatchers.Default) {
+            teams.forEach { team ->
+                PackedTeamCodec.collectAssetIds(team.pack(), speciesIds, itemIds, moveIds)
+            }
+        }
+        val names = Names(assetLoader.dexPokemons(speciesIds), assetLoader.items(itemIds), assetLoader.moves(moveIds))
+        withContext(Dispatchers.IO) {
+            teams.forEach { team -> buildTeam(writer, names, team, headers = teams.size > 1) }
+            writer.flush()
         }
     }
 
-    private suspend fun buildTeam(builder: StringBuilder, assetLoader: AssetLoader, team: Team, headers: Boolean = false) {
-        if (team.pokemons.isEmpty()) return
+    private fun buildTeam(out: Appendable, names: Names, team: Team, headers: Boolean = false) {
+        val pokemons = team.readPokemons()
+        if (pokemons.isEmpty()) return
         if (headers && (team.label.isNotBlank() || team.format != null)) {
-            builder.append("===[${team.format ?: "other"}] ${team.label}===")
-            builder.append("\n\n")
+            out.append("===[${team.format ?: "other"}] ${team.label}===")
+            out.append("\n\n")
         }
-        team.pokemons.forEach { p ->
-            buildPokemon(builder, assetLoader, p)
+        pokemons.forEach { p ->
+            buildPokemon(out, names, p)
         }
-        builder.append("\n")
+        out.append("\n")
     }
 
     suspend fun buildPokemon(assetLoader: AssetLoader, pokemon: TeamPokemon): String {
+        val speciesId = pokemon.species.toId()
+        val itemId = pokemon.item.toId()
+        val names = Names(
+                mapOf(speciesId to assetLoader.dexPokemon(speciesId)),
+                if (itemId.isBlank()) emptyMap() else mapOf(itemId to assetLoader.item(itemId)),
+                pokemon.moves.filter { it.isNotBlank() }.associate { it.toId() to assetLoader.moveDetails(it) })
         val builder = StringBuilder()
-        buildPokemon(builder, assetLoader, pokemon)
+        buildPokemon(builder, names, pokemon)
         return builder.toString()
     }
 
-    private suspend fun buildPokemon(builder: StringBuilder, assetLoader: AssetLoader, pokemon: TeamPokemon) {
-        val dexPokemon = assetLoader.dexPokemon(pokemon.species.toId()) ?: return
+    private fun buildPokemon(out: Appendable, names: Names, pokemon: TeamPokemon) {
+        val dexPokemon = names.dexPokemons[pokemon.species.toId()] ?: return
 
         if (pokemon.name.isNotBlank()) {
-            builder.append("${pokemon.name} (${dexPokemon.species})")
+            out.append("${pokemon.name} (${dexPokemon.species})")
         } else {
-            builder.append(dexPokemon.species)
+            out.append(dexPokemon.species)
         }
         if (dexPokemon.gender == null && (pokemon.gender.equals("m", ignoreCase = true) ||
                 pokemon.gender.equals("f", ignoreCase = true))) {
-            builder.append(" (${pokemon.gender.toUpperCase(Locale.ROOT)})")
+            out.append(" (${pokemon.gender.toUpperCase(Locale.ROOT)})")
         }
         if (pokemon.item.isNotBlank()) {
-            val item = assetLoader.item(pokemon.item.toId())?.name ?: pokemon.item
-            builder.append(" @ $item")
+            val item = names.items[pokemon.item.toId()]?.name ?: pokemon.item
+            out.append(" @ $item")
         } // TODO support hidden power type
         if (pokemon.ability.isNotBlank()) {
-            builder.append("\n")
+            out.append("\n")
             val ability = dexPokemon.matchingAbility(pokemon.ability)
-            builder.append("Ability: $ability")
+            out.append("Ability: $ability")
         }
         if (pokemon.shiny) {
-            builder.append("\n")
-            builder.append("Shiny: Yes")
+            out.append("\n")
+            out.append("Shiny: Yes")
         }
         if (pokemon.level != 100) {
-            builder.append("\n")
-            builder.append("Level: ${pokemon.level}")
+            out.append("\n")
+            out.append("Level: ${pokemon.level}")
         }
         if (pokemon.happiness != 255) {
-            builder.append("\n")
-            builder.append("Happiness: ${pokemon.happiness}")
+            out.append("\n")
+            out.append("Happiness: ${pokemon.happiness}")
         }
         if (pokemon.pokeball.isNotBlank()) {
-            builder.append("\n")
-            builder.append("Pokeball: ${pokemon.pokeball}")
+            out.append("\n")
+            out.append("Pokeball: ${pokemon.pokeball}")
         }
         if (pokemon.hpType.isNotBlank()) {
-            builder.append("\n")
-            builder.append("Hidden Power: ${pokemon.hpType}")
+            out.append("\n")
+            out.append("Hidden Power: ${pokemon.hpType}")
         }
         if (pokemon.evs.sum() > 0) {
-            builder.append("\n")
-            builder.append(
+            out.append("\n")
+            out.append(
                 (0 until 6).filter { i -> pokemon.evs.get(i) > 0 }.joinToString(separator = " / ", prefix = "EVs: ") { i ->
                     "${pokemon.evs.get(i)} ${Stats.getName(i)}"
                 }
             )
         }
         if (pokemon.nature.isNotBlank()) {
-            builder.append("\n")
+            out.append("\n")
             val nature = Nature.get(pokemon.nature).name
-            builder.append("$nature Nature")
+            out.append("$nature Nature")
         }
         if (pokemon.ivs.sum() != 6*31) {
-            builder.append("\n")
-            builder.append(
+            out.append("\n")
+            out.append(
                     (0 until 6).filter { i -> pokemon.ivs.get(i) != 31 }.joinToString(separator = " / ", prefix = "IVs: ") { i ->
                         "${pokemon.ivs.get(i)} ${Stats.getName(i)}"
                     }
@@ -104,12 +140,12 @@ object SmogonTeamBuilder {
         }
         pokemon.moves.forEach { moveId ->
             if (moveId.isBlank()) return@forEach
-            builder.append("\n")
-            val moveName = assetLoader.moveDetails(moveId)?.name ?: moveId
-            builder.append("- $moveName")
+            out.append("\n")
+            val moveName = names.moves[moveId.toId()]?.name ?: moveId
+            out.append("- $moveName")
 
             // TODO If hidden power type is specified in move name, set ivs accordingly
         }
-        builder.append("\n\n")
+        out.append("\n\n")
     }
 }
\ No newline at end of file
@@ -7,32 +7,103 @@ import com.majeur.psclient.model.common.toId
 import com.majeur.psclient.model.pokemon.TeamPokemon
 import com.majeur.psclient.util.or
 import com.majeur.psclient.util.toId
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.util.concurrent.atomic.AtomicInteger
 
 object SmogonTeamParser {
 
-    private val TEAM_HEADER_CONTENT_PATTERN = "(?<=={3}).*(?=={3})".toRegex().toPattern()
-    private val TEAM_HEADER_SPLIT_REGEX = "={3}.*={3}".toRegex()
+    // Teams are split between this many workers at most
+    private val PARSE_PARALLELISM = Runtime.getRuntime().availableProcessors().coerceIn(1, 4)
 
-    suspend fun parseTeams(importString: String, assetLoader: AssetLoader): List<Team> {
-        val teams = mutableListOf<Team>()
+    private class RawTeam(val format: String, val label: String) {
+        val rawPokemons = mutableListOf<String>()
+    }
 
-        val matcher = TEAM_HEADER_CONTENT_PATTERN.matcher(importString)
-        val headers = mutableListOf<String>()
-        while (matcher.find()) headers.add(matcher.group().trim())
+    /**
+     * Parses a paste of one or more teams. Pokemons are parsed concurrently without touching assets,
+     * abilities of all of them are then matched against the dex and their items and moves checked
+     * against the item and move data, with one batched lookup each. Unknown items and moves are dropped.
+     * [onProgress] is called on the main thread with the count of teams parsed so far.
+     */
+    suspend fun parseTeams(importString: String, assetLoader: AssetLoader,
+                           onProgress: ((parsed: Int, total: Int) -> Unit)? = null): List<Team> {
+        val rawTeams = withContext(Dispatchers.Default) { tokenize(importString) }
+        if (rawTeams.isEmpty()) return emptyList()
 
-        if (headers.isEmpty()) { // Single team import
-            parseTeam(importString, BattleFormat.FORMAT_OTHER.toId(), "Unnamed team", assetLoader)?.also {
-                teams.add(it)
-            }
-        } else { // Multiple teams import
-            val rawTeams = importString.split(TEAM_HEADER_SPLIT_REGEX).drop(1)
-            rawTeams.zip(headers).forEach { (rawTeam, header) ->
-                val format = getFormatFromHeader(header) ?: BattleFormat.FORMAT_OTHER.toId()
-                val teamLabel = getLabelFromHeader(header).or("Unnamed team")
-                val team = parseTeam(rawTeam, format, teamLabel, assetLoader)
-                if (team != null) teams.add(team)
+        val parsedCount = AtomicInteger()
+        val chunkSize = (rawTeams.size + PARSE_PARALLELISM - 1) / PARSE_PARALLELISM
+        val pokemons = coroutineScope {
+            rawTeams.chunked(chunkSize).map { chunk ->
+                async(Dispatchers.Default) {
+                    chunk.map { rawTeam ->
+                        val teamPokemons = rawTeam.rawPokemons.mapNotNull { parsePokemonText(it) }
+                        val count = parsedCount.incrementAndGet()
+                        if (onProgress != null) launch(Dispatchers.Main) { onProgress(count, rawTeams.size) }
+                        teamPokemons
+                    }
+                }
+            }.awaitAll().flatten()
+        }
+
+        val allPokemons = pokemons.flatten()
+        val withAbility = allPokemons.filter { it.ability.isNotEmpty() }
+        val dexPokemons = assetLoader.dexPokemons(withAbility.mapTo(HashSet()) { it.species.toId() })
+        withAbility.forEach { p ->
+            p.ability = dexPokemons[p.species.toId()]?.matchingAbility(p.ability.toId(), "") ?: ""
+        }
+        // Items and moves are already ids, lookups only tell which of them exist
+        val items = assetLoader.items(allPokemons.mapNotNullTo(HashSet()) { p -> p.item.takeIf { it.isNotEmpty() } })
+        val moves = assetLoader.moves(allPokemons.flatMapTo(HashSet()) { it.moves })
+        allPokemons.forEach { p ->
+            if (p.item.isNotEmpty() && items[p.item] == null) p.item = ""
+            if (p.moves.any { moves[it] == null }) p.moves = p.moves.filter { moves[it] != null }
+        }
+
+        return rawTeams.zip(pokemons).filter { (_, teamPokemons) -> teamPokemons.isNotEmpty() }
+                .map { (rawTeam, teamPokemons) -> Team(rawTeam.label, teamPokemons, rawTeam.format) }
+    }
+
+    // Reads the paste line by line, pokemons are separated by blank lines and teams by
+    // "===[format] label===" headers. Anything before the first header is dropped.
+    private fun tokenize(importString: String): List<RawTeam> {
+        val teams = mutableListOf<RawTeam>()
+        var team = RawTeam(BattleFormat.FORMAT_OTHER.toId(), "Unnamed team")
+        val rawPokemon = StringBuilder()
+
+        fun endPokemon() {
+            if (rawPokemon.isNotEmpty()) team.rawPokemons.add(rawPokemon.toString())
+            rawPokemon.setLength(0)
+        }
+
+        var start = 0
+        while (start <= importString.length) {
+            var end = importString.indexOf('\n', start)
+            if (end < 0) end = importString.length
+            val line = importString.substring(start, end).trim()
+            start = end + 1
+            when {
+                line.isEmpty() -> endPokemon()
+                line.length >= 6 && line.startsWith("===") && line.endsWith("===") -> {
+                    endPokemon()
+                    val header = line.substring(3, line.length - 3).trim()
+                    team = RawTeam(getFormatFromHeader(header) ?: BattleFormat.FORMAT_OTHER.toId(),
+                            getLabelFromHeader(header).or("Unnamed team"))
+                    teams.add(team)
+                }
+                else -> {
+                    if (rawPokemon.isNotEmpty()) rawPokemon.append('\n')
+                    rawPokemon.append(line)
+                }
             }
         }
+        endPokemon()
+        // Single team import
+        if (teams.isEmpty()) teams.add(team)
         return teams
     }
 
@@ -47,16 +118,17 @@ object SmogonTeamParser {
         return if (startIndex < 0) teamHeader.trim() else teamHeader.substring(startIndex + 1).trim()
     }
 
-    private suspend fun parseTeam(rawString: String, format: String, label: String, assetLoader: AssetLoader): Team? {
-        // Make sure there is no CR char when we split with LF
-        val rawPokemons = rawString.replace("\r", "").split("\n\n").toTypedArray()
-        if (rawPokemons.isEmpty()) return null
-
-        val pokemons = rawPokemons.mapNotNull { parsePokemon(it.trim(), assetLoader) }
-        return Team(label, pokemons, format)
+    suspend fun parsePokemon(rawPokemon: String, assetLoader: AssetLoader): TeamPokemon? {
+        val p = parsePokemonText(rawPokemon) ?: return null
+        if (p.ability.isNotEmpty()) {
+            val dexPokemon = assetLoader.dexPokemon(p.species.toId())
+            p.ability = dexPokemon?.matchingAbility(p.ability.toId(), "") ?: ""
+        }
+        return p
     }
 
-    suspend fun parsePokemon(rawPokemon: String, assetLoader: AssetLoader): TeamPokemon? {
+    // Ability is left as written, it has to be matched against the dex by the caller
+    private fun parsePokemonText(rawPokemon: String): TeamPokemon? {
         val lines = rawPokemon.trim().split("\n").toTypedArray()
         if (lines.isEmpty()) return null
 
@@ -147,11 +219,7 @@ object SmogonTeamParser {
             } else if (line.trim().endsWith("Nature")) {
                 p.nature = line.trim().removeSuffix("Nature").trim()
             } else if (line.startsWith("Ability:")) {
-                val ability = line.removePrefix("Ability:").trim()
-                val dexPokemon = assetLoader.dexPokemon(p.species.toId())
-                val matchingAbility = dexPokemon?.matchingAbility(ability.toId(), "") ?: ""
-                if (matchingAbility.isNotBlank())
-                    p.ability = matchingAbility
+                p.ability = line.removePrefix("Ability:").trim()
             } else if (line.startsWith("Level:")) {
                 val level = line.removePrefix("Level:").trim()
                 p.level = level.toIntOrNull() ?: 100
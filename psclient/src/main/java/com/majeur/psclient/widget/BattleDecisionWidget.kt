@@ -26,6 +26,7 @@ import androidx.core.view.children
 import com.majeur.psclient.R
 import com.majeur.psclient.model.battle.*
 import com.majeur.psclient.model.battle.Move.Target.Companion.computeTargetAvailabilities
+import com.majeur.psclient.model.common.TypeChart
 import com.majeur.psclient.model.pokemon.BattlingPokemon
 import com.majeur.psclient.model.pokemon.SidePokemon
 import com.majeur.psclient.service.observer.BattleRoomMessageObserver
@@ -67,6 +68,12 @@ class BattleDecisionWidget @JvmOverloads constructor(context: Context?, attrs: A
     private var _onDecisionListener: ((BattleDecision) -> Unit)? = null
     private val onDecisionListener get() = _onDecisionListener!!
     private var comingToPreviousStage = false
+    // Z or max moves are displayed instead of regular ones
+    private var showingAltMoves = false
+    // Type indexes of each foe position, two per foe, see TypeChart
+    private val foeTypes = IntArray(2 * MAX_FOES) { TypeChart.NONE }
+    // Damage ranges of each move of each of our pokemons against each foe, see DamageCalculator
+    private val damageRanges = IntArray(MAX_FOES * MAX_MOVES * MAX_FOES) { DamageCalculator.UNKNOWN }
 
     init {
         visibility = View.GONE
@@ -228,6 +235,8 @@ class BattleDecisionWidget @JvmOverloads constructor(context: Context?, attrs: A
         _request = request
         _onDecisionListener = listener
         _decision = BattleDecision()
+        foeTypes.fill(TypeChart.NONE)
+        damageRanges.fill(DamageCalculator.UNKNOWN)
         promptNext()
         revealIn()
     }
@@ -475,6 +484,7 @@ class BattleDecisionWidget @JvmOverloads constructor(context: Context?, attrs: A
     }
 
     private fun toggleZMoves(toggle: Boolean) {
+        showingAltMoves = toggle
         moveButtons.forEach { button ->
             if (button.visibility == View.GONE) return@forEach
             val move = button.getTag(R.id.battle_data_tag) as Move
@@ -496,6 +506,7 @@ class BattleDecisionWidget @JvmOverloads constructor(context: Context?, attrs: A
     }
 
     private fun toggleMaxMoves(toggle: Boolean) {
+        showingAltMoves = toggle
         moveButtons.forEach { button ->
             if (button.visibility == View.GONE) return@forEach
             val move = button.getTag(R.id.battle_data_tag) as Move
@@ -526,7 +537,54 @@ class BattleDecisionWidget @JvmOverloads constructor(context: Context?, attrs: A
         setTextColor(if (enabled) Color.WHITE else Color.GRAY)
     }
 
-    private fun moveText(move: Move) = move.name concat "\n" concat "${move.pp}/${move.ppMax}".small()
+    private fun moveText(move: Move): CharSequence {
+        var text = move.name concat "\n" concat "${move.pp}/${move.ppMax}".small()
+        val position = facingFoePosition()
+        if (position < 0) return text
+        effectivenessLabel(move.details, position)?.let { text = text concat "  $it".small() }
+        damageLabel(move.index, position)?.let { text = text concat "  $it".small() }
+        return text
+    }
+
+    // The foe facing the pokemon we are choosing for, or the first known foe
+    private fun facingFoePosition(): Int {
+        val position = promptStage.coerceIn(0, MAX_FOES - 1)
+        if (foeTypes[2 * position] != TypeChart.NONE) return position
+        for (i in 0 until MAX_FOES) if (foeTypes[2 * i] != TypeChart.NONE) return i
+        return -1
+    }
+
+    private fun effectivenessLabel(details: Move.Details?, position: Int): String? {
+        if (details == null || details.category.equals("status", ignoreCase = true)) return null
+        return when (TypeChart.effectiveness(TypeChart.indexOf(details.type), foeTypes[2 * position], foeTypes[2 * position + 1])) {
+            0f -> "No effect"
+            0.25f -> "×¼"
+            0.5f -> "×½"
+            2f -> "×2"
+            4f -> "×4"
+            else -> null
+        }
+    }
+
+    private fun damageLabel(moveIndex: Int, position: Int): String? {
+        if (moveIndex !in 0 until MAX_MOVES) return null
+        val range = damageRanges[damageIndex(promptStage.coerceIn(0, MAX_FOES - 1), moveIndex, position)]
+        if (range == DamageCalculator.UNKNOWN || DamageCalculator.rangeMax(range) == 0) return null
+        return "${DamageCalculator.rangeMin(range)}-${DamageCalculator.rangeMax(range)}%"
+    }
+
+    private fun damageIndex(slot: Int, moveIndex: Int, position: Int) = (slot * MAX_MOVES + moveIndex) * MAX_FOES + position
+
+    fun setDamageRange(slot: Int, moveIndex: Int, position: Int, range: Int) {
+        if (slot !in 0 until MAX_FOES || moveIndex !in 0 until MAX_MOVES || position !in 0 until MAX_FOES) return
+        damageRanges[damageIndex(slot, moveIndex, position)] = range
+    }
+
+    fun setFoeTypes(position: Int, type1: Int, type2: Int) {
+        if (position !in 0 until MAX_FOES) return
+        foeTypes[2 * position] = type1
+        foeTypes[2 * position + 1] = type2
+    }
 
     fun notifyDexIconsUpdated() = switchButtons.forEach { btn ->
         val tag = btn.getTag(R.id.battle_data_tag)
@@ -540,6 +598,7 @@ class BattleDecisionWidget @JvmOverloads constructor(context: Context?, attrs: A
         val move = btn.getTag(R.id.battle_data_tag) as Move?
         if (move != null && !move.maxflag && move.details != null) {
             btn.background.setTint(move.details!!.color)
+            if (!showingAltMoves) btn.text = moveText(move)
         }
     }
 
@@ -687,6 +746,8 @@ class BattleDecisionWidget @JvmOverloads constructor(context: Context?, attrs: A
         }
 
         private const val DEFAULT_TINT = Color.GRAY
+        private const val MAX_FOES = 3
+        private const val MAX_MOVES = 4
 
         private const val ANIM_REVEAL_DURATION = 250L
         private const val ANIM_REVEAL_FADE_DURATION = 100L
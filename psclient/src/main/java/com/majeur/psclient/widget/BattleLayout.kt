@@ -57,6 +57,13 @@ class BattleLayout @JvmOverloads constructor(
         requestLayout()
     }
 
+    // Animated sprites keep decoding frames while running, even when the layout is not on screen
+    fun setSpritesVisible(visible: Boolean) {
+        // Both arrays are keyed by position, they can't be merged
+        p1ImageViews.forEach { _, imageView -> imageView.drawable?.setVisible(visible, false) }
+        p2ImageViews.forEach { _, imageView -> imageView.drawable?.setVisible(visible, false) }
+    }
+
     fun setPreviewTeamSize(player: Player, teamSize: Int) {
         if (player === Player.TRAINER) p1PreviewTeamSize = teamSize
         if (player === Player.FOE) p2PreviewTeamSize = teamSize
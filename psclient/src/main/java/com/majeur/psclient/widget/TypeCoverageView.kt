@@ -0,0 +1,101 @@
+package com.majeur.psclient.widget
+
+import android.content.Context
+import android.graphics.Canvas
+import android.graphics.Paint
+import android.graphics.RectF
+import android.util.AttributeSet
+import android.view.View
+import androidx.core.content.ContextCompat
+import com.majeur.psclient.R
+import com.majeur.psclient.model.common.Colors
+import com.majeur.psclient.model.common.Type
+import com.majeur.psclient.model.common.TypeChart
+import com.majeur.psclient.util.dp
+import com.majeur.psclient.util.sp
+
+/**
+ * Grid with one column per type (ordered like Type.ALL), showing how many team members are weak
+ * to or resist that type, and whether a move of the team hits it super effectively.
+ */
+class TypeCoverageView @JvmOverloads constructor(context: Context?, attrs: AttributeSet? = null, defStyleAttr: Int = 0)
+    : View(context, attrs, defStyleAttr) {
+
+    private val weakCounts = IntArray(TypeChart.COUNT)
+    private val resistCounts = IntArray(TypeChart.COUNT)
+    private var coverageMask = 0
+
+    private val paint = Paint(Paint.ANTI_ALIAS_FLAG).apply { textAlign = Paint.Align.CENTER }
+    private val tagRect = RectF()
+    private val labels = Type.ALL.map { it.take(3).toUpperCase() }
+
+    private val textColor = ContextCompat.getColor(context!!, R.color.onSurfaceBackground)
+    private val textSize = sp(10f).toFloat()
+    private val rowHeight = dp(16f)
+    private val labelWidth = dp(44f)
+    private val tagInset = dp(1f).toFloat()
+    private val tagCornerRadius = dp(2f).toFloat()
+    private val dotRadius = dp(2.5f).toFloat()
+
+    // Sums are computed by the caller, see TypeChart.accumulate()
+    fun setCoverage(weakCounts: IntArray, resistCounts: IntArray, coverageMask: Int) {
+        weakCounts.copyInto(this.weakCounts)
+        resistCounts.copyInto(this.resistCounts)
+        this.coverageMask = coverageMask
+        invalidate()
+    }
+
+    override fun onMeasure(widthMeasureSpec: Int, heightMeasureSpec: Int) {
+        val height = paddingTop + paddingBottom + ROW_COUNT * rowHeight
+        setMeasuredDimension(MeasureSpec.getSize(widthMeasureSpec), resolveSize(height, heightMeasureSpec))
+    }
+
+    override fun onDraw(canvas: Canvas) {
+        super.onDraw(canvas)
+        val left = paddingLeft + labelWidth
+        val columnWidth = (width - paddingRight - left) / TypeChart.COUNT.toFloat()
+        paint.textSize = textSize
+        val textOffset = -(paint.ascent() + paint.descent()) / 2f
+
+        paint.color = textColor
+        paint.textAlign = Paint.Align.LEFT
+        ROW_LABELS.forEachIndexed { row, label ->
+            canvas.drawText(label, paddingLeft.toFloat(), rowCenter(row + 1) + textOffset, paint)
+        }
+        paint.textAlign = Paint.Align.CENTER
+
+        for (i in 0 until TypeChart.COUNT) {
+            val x = left + i * columnWidth
+            val centerX = x + columnWidth / 2f
+
+            tagRect.set(x + tagInset, paddingTop + tagInset, x + columnWidth - tagInset, paddingTop + rowHeight - tagInset)
+            paint.color = Colors.typeColor(Type.ALL[i].toLowerCase())
+            canvas.drawRoundRect(tagRect, tagCornerRadius, tagCornerRadius, paint)
+            paint.color = Colors.WHITE
+            paint.textSize = textSize * 0.7f
+            canvas.drawText(labels[i], centerX, rowCenter(0) - (paint.ascent() + paint.descent()) / 2f, paint)
+            paint.textSize = textSize
+
+            if (weakCounts[i] > 0) {
+                paint.color = if (weakCounts[i] >= WEAK_WARNING) Colors.RED else textColor
+                canvas.drawText(weakCounts[i].toString(), centerX, rowCenter(1) + textOffset, paint)
+            }
+            if (resistCounts[i] > 0) {
+                paint.color = textColor
+                canvas.drawText(resistCounts[i].toString(), centerX, rowCenter(2) + textOffset, paint)
+            }
+            paint.color = if (coverageMask and (1 shl i) != 0) Colors.GREEN else Colors.GRAY
+            paint.alpha = if (coverageMask and (1 shl i) != 0) 255 else 64
+            canvas.drawCircle(centerX, rowCenter(3), dotRadius, paint)
+            paint.alpha = 255
+        }
+    }
+
+    private fun rowCenter(row: Int) = paddingTop + row * rowHeight + rowHeight / 2f
+
+    companion object {
+        private const val ROW_COUNT = 4
+        private const val WEAK_WARNING = 3
+        private val ROW_LABELS = arrayOf("Weak", "Resist", "Hits")
+    }
+}
@@ -0,0 +1,90 @@
+package com.majeur.psclienttest
+
+import com.majeur.psclient.util.ChatFormatter
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.junit.MockitoJUnitRunner
+
+@RunWith(MockitoJUnitRunner::class)
+class ChatFormatterTest {
+
+    private class RecordingSink : ChatFormatter.Sink {
+        val text = StringBuilder()
+        val styles = mutableListOf<Triple<Int, String, String?>>()
+
+        override fun length() = text.length
+        override fun append(text: CharSequence, start: Int, end: Int) { this.text.append(text, start, end) }
+        override fun insert(where: Int, text: CharSequence) { this.text.insert(where, text) }
+        override fun setStyle(style: Int, start: Int, end: Int, param: String?) {
+            styles.add(Triple(style, text.substring(start, end), param))
+        }
+    }
+
+    private fun format(text: String, tokens: Int = ChatFormatter.ALL) =
+            RecordingSink().also { ChatFormatter.tokenize(text, tokens, it) }
+
+    @Test
+    fun `test_Format delimited tokens`() {
+        val sink = format("**bold** __italic__ ~~strike~~ ^^sup^^ \\\\sub\\\\")
+        assert(sink.text.toString() == "bold italic strike sup sub") { "Wrong text: ${sink.text}" }
+        assert(sink.styles.map { it.first to it.second } == listOf(
+                ChatFormatter.BOLD to "bold", ChatFormatter.ITALIC to "italic",
+                ChatFormatter.STRIKETHROUGH to "strike", ChatFormatter.SUPERSCRIPT to "sup",
+                ChatFormatter.SUBSCRIPT to "sub")) { "Wrong styles: ${sink.styles}" }
+    }
+
+    @Test
+    fun `test_Format nested and overlapping tokens`() {
+        val sink = format("**a __b** c__")
+        assert(sink.text.toString() == "a b c") { "Wrong text: ${sink.text}" }
+        assert(sink.styles.map { it.first to it.second } == listOf(
+                ChatFormatter.BOLD to "a b", ChatFormatter.ITALIC to "b c")) { "Wrong styles: ${sink.styles}" }
+    }
+
+    @Test
+    fun `test_Keep unclosed and empty tokens as text`() {
+        assert(format("2 ** 3 = 8").text.toString() == "2 ** 3 = 8")
+        assert(format("a **b __c").text.toString() == "a **b __c")
+        assert(format("****").text.toString() == "****")
+        assert(format("**a** **b").styles.size == 1)
+    }
+
+    @Test
+    fun `test_Do not format code content`() {
+        val sink = format("see ``**not bold**`` ok")
+        assert(sink.text.toString() == "see **not bold** ok") { "Wrong text: ${sink.text}" }
+        assert(sink.styles == listOf(Triple(ChatFormatter.CODE, "**not bold**", null))) { "Wrong styles: ${sink.styles}" }
+    }
+
+    @Test
+    fun `test_Format links`() {
+        val sink = format("go to https://pokemonshowdown.com/ladder. or [[Smogon <https://smogon.com>]] and <<lobby>>")
+        assert(sink.text.toString() == "go to https://pokemonshowdown.com/ladder. or Smogon and «lobby»") { "Wrong text: ${sink.text}" }
+        assert(sink.styles == listOf(
+                Triple(ChatFormatter.LINK, "https://pokemonshowdown.com/ladder", "https://pokemonshowdown.com/ladder"),
+                Triple(ChatFormatter.LINK, "Smogon", "https://smogon.com"),
+                Triple(ChatFormatter.ROOM_LINK, "«lobby»", "lobby"))) { "Wrong styles: ${sink.styles}" }
+    }
+
+    @Test
+    fun `test_Close styles around links`() {
+        val sink = format("**see http://x.com/a_b**, then __https://y.com__")
+        assert(sink.text.toString() == "see http://x.com/a_b, then https://y.com") { "Wrong text: ${sink.text}" }
+        assert(sink.styles == listOf(
+                Triple(ChatFormatter.LINK, "http://x.com/a_b", "http://x.com/a_b"),
+                Triple(ChatFormatter.BOLD, "see http://x.com/a_b", null),
+                Triple(ChatFormatter.LINK, "https://y.com", "https://y.com"),
+                Triple(ChatFormatter.ITALIC, "https://y.com", null))) { "Wrong styles: ${sink.styles}" }
+        val unopened = format("http://x.com/a**b")
+        assert(unopened.styles == listOf(Triple(ChatFormatter.LINK, "http://x.com/a**b", "http://x.com/a**b"))) {
+            "Delimiters that are not open belong to the link: ${unopened.styles}"
+        }
+    }
+
+    @Test
+    fun `test_Only format enabled tokens`() {
+        val sink = format("**Pikachu** used __Thunder__!", ChatFormatter.BOLD)
+        assert(sink.text.toString() == "Pikachu used __Thunder__!") { "Wrong text: ${sink.text}" }
+        assert(sink.styles.size == 1) { "Wrong styles: ${sink.styles}" }
+    }
+}
@@ -0,0 +1,95 @@
+package com.majeur.psclienttest
+
+import com.majeur.psclient.model.battle.DamageCalculator
+import com.majeur.psclient.model.battle.DamageCalculator.Companion.rangeMax
+import com.majeur.psclient.model.battle.DamageCalculator.Companion.rangeMin
+import com.majeur.psclient.model.battle.Move
+import com.majeur.psclient.model.common.Stats
+import com.majeur.psclient.model.common.TypeChart
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.junit.MockitoJUnitRunner
+
+@RunWith(MockitoJUnitRunner::class)
+class DamageCalculatorTest {
+
+    private val calculator = DamageCalculator()
+    private val attackerStats = Stats(300, 250, 200, 250, 200, 200)
+    private val defenderBaseStats = Stats(100, 100, 100, 100, 100, 100)
+
+    private fun type(name: String) = TypeChart.indexOf(name)
+
+    private fun move(type: String, category: String, basePower: Int) = Move.Details().apply {
+        this.name = "Test"
+        this.type = type
+        this.category = category
+        this.basePower = basePower
+    }
+
+    private fun range(move: Move.Details, attackerType: String = "Normal", defenderType: String = "Normal",
+                      burned: Boolean = false, spread: Boolean = false): Int {
+        calculator.setAttacker(100, attackerStats, null, type(attackerType), TypeChart.NONE, burned)
+        calculator.setDefender(100, defenderBaseStats, null, type(defenderType), TypeChart.NONE)
+        return calculator.percentRange(move, spread)
+    }
+
+    @Test
+    fun `test_Damage range bounds`() {
+        val range = range(move("Water", "Special", 90))
+        assert(range != DamageCalculator.UNKNOWN) { "Damaging move must be estimated" }
+        assert(rangeMin(range) in 1..rangeMax(range)) { "Wrong range ${rangeMin(range)}-${rangeMax(range)}" }
+    }
+
+    @Test
+    fun `test_Damage modifiers`() {
+        val neutral = range(move("Water", "Special", 90))
+        val stab = range(move("Water", "Special", 90), attackerType = "Water")
+        val superEffective = range(move("Water", "Special", 90), defenderType = "Fire")
+        val spread = range(move("Water", "Special", 90), spread = true)
+        assert(rangeMax(stab) > rangeMax(neutral)) { "STAB must increase damage" }
+        assert(rangeMax(superEffective) >= 2 * rangeMax(neutral) - 1) { "Super effective must double damage" }
+        assert(rangeMax(spread) < rangeMax(neutral)) { "Spread moves must deal less damage" }
+
+        val physical = range(move("Normal", "Physical", 80))
+        val burned = range(move("Normal", "Physical", 80), burned = true)
+        assert(rangeMax(burned) <= (rangeMax(physical) + 1) / 2 + 1) { "Burn must halve physical damage" }
+    }
+
+    // Ranges go from the lowest roll against 252 HP / 252+ Def (or SpD) Clefable to the highest one
+    // against 0 HP / 0 Def Clefable, damage values are the ones of Showdown's damage calculator
+    private val clefable = Stats(95, 70, 73, 95, 90, 60)
+
+    private fun referenceRange(attackerStats: Stats, type1: String, type2: String?, move: Move.Details, spread: Boolean): Int {
+        calculator.setAttacker(100, attackerStats, null, type(type1), type2?.let { type(it) } ?: TypeChart.NONE, false)
+        calculator.setDefender(100, clefable, null, type("Fairy"), TypeChart.NONE)
+        return calculator.percentRange(move, spread)
+    }
+
+    @Test
+    fun `test_Reference STAB damage`() {
+        // 252+ Atk Garchomp Earthquake: 159-274 damage, out of 394 and 331 HP
+        val range = referenceRange(Stats(357, 394, 226, 176, 206, 303), "Dragon", "Ground",
+                move("Ground", "Physical", 100), false)
+        assert(rangeMin(range) == 40 && rangeMax(range) == 83) { "Wrong range ${rangeMin(range)}-${rangeMax(range)}" }
+    }
+
+    @Test
+    fun `test_Reference spread damage`() {
+        // 252 Atk Garchomp Bulldoze on two foes: 66-114 damage, truncating the spread modifier gives 64-112
+        val bulldoze = referenceRange(Stats(357, 359, 226, 196, 206, 333), "Dragon", "Ground",
+                move("Ground", "Physical", 60), true)
+        assert(rangeMin(bulldoze) == 16 && rangeMax(bulldoze) == 35) { "Wrong range ${rangeMin(bulldoze)}-${rangeMax(bulldoze)}" }
+        // 252 SpA Mew Heat Wave on two foes: 50-84 damage
+        val heatWave = referenceRange(Stats(341, 236, 236, 299, 236, 236), "Psychic", null,
+                move("Fire", "Special", 95), true)
+        assert(rangeMin(heatWave) == 12 && rangeMax(heatWave) == 26) { "Wrong range ${rangeMin(heatWave)}-${rangeMax(heatWave)}" }
+    }
+
+    @Test
+    fun `test_Moves without estimate`() {
+        assert(range(move("Normal", "Status", 0)) == DamageCalculator.UNKNOWN) { "Status moves deal no damage" }
+        assert(range(move("Fighting", "Physical", 0)) == DamageCalculator.UNKNOWN) { "Variable power moves are not estimated" }
+        val immune = range(move("Ghost", "Special", 80))
+        assert(rangeMax(immune) == 0) { "Normal types are immune to Ghost moves" }
+    }
+}
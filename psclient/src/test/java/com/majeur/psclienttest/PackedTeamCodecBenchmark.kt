@@ -0,0 +1,47 @@
+package com.majeur.psclienttest
+
+import com.majeur.psclient.model.common.PackedTeamCodec
+import org.junit.Assume
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.junit.MockitoJUnitRunner
+
+/**
+ * Measures [PackedTeamCodec] pack and unpack throughput over the sample teams, replayed until the
+ * corpus holds a few thousand teams. Only runs when asked for, with ./gradlew test -Pbenchmark
+ */
+@RunWith(MockitoJUnitRunner::class)
+class PackedTeamCodecBenchmark {
+
+    private val codec = PackedTeamCodec()
+
+    @Before
+    fun checkEnabled() {
+        Assume.assumeTrue(System.getProperty("psclient.benchmark") == "true")
+    }
+
+    @Test
+    fun benchmark_PackAndUnpackTeams() {
+        val samples = readSampleTeams().map { it.pack() }
+        val teams = List(CORPUS_SIZE) { samples[it % samples.size] }
+        val unpacked = teams.map { codec.unpack(it)!! }
+
+        // Warm up both paths
+        teams.forEach { codec.unpack(it) }
+        unpacked.forEach { codec.pack(it) }
+
+        val rounds = 10
+        var start = System.nanoTime()
+        repeat(rounds) { teams.forEach { codec.unpack(it) } }
+        val unpackNs = (System.nanoTime() - start) / (rounds * teams.size)
+        start = System.nanoTime()
+        repeat(rounds) { unpacked.forEach { codec.pack(it) } }
+        val packNs = (System.nanoTime() - start) / (rounds * teams.size)
+        println("PackedTeamCodecBenchmark over ${teams.size} teams: unpack $unpackNs ns/team, pack $packNs ns/team")
+    }
+
+    companion object {
+        private const val CORPUS_SIZE = 5000
+    }
+}
@@ -0,0 +1,104 @@
+package com.majeur.psclienttest
+
+import com.majeur.psclient.model.common.PackedTeamCodec
+import com.majeur.psclient.model.common.Team
+import com.majeur.psclient.model.pokemon.TeamPokemon
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.junit.MockitoJUnitRunner
+
+@RunWith(MockitoJUnitRunner::class)
+class PackedTeamCodecTest {
+
+    private val codec = PackedTeamCodec()
+
+    // Sets as exported by Showdown's teambuilder
+    private val sets = listOf(
+            "Landorus-Therian||choicescarf|intimidate|Earthquake,U-turn,Stone Edge,Explosion|Jolly|,252,,,4,252|||||",
+            "Toxapex||blacksludge|regenerator|Scald,Toxic Spikes,Recover,Haze|Bold|252,,252,,4,|F||||",
+            "Ferrothorn||leftovers|ironbarbs|Spikes,Leech Seed,Gyro Ball,Knock Off|Relaxed|252,,88,,168,|M|,,,,,0|||",
+            "Sparky|Magnezone|choicespecs|magnetpull|Thunderbolt,Flash Cannon,Volt Switch,Hidden Power|Modest|,,,252,4,252||,0,,30,,|S|88|,Fire,,,",
+            "Dragapult||choiceband|infiltrator|Dragon Darts,U-turn,Phantom Force,Sucker Punch|Jolly|,252,,,4,252|||||,,dreamball,,",
+            "Corviknight||leftovers|pressure|Brave Bird,Roost,Defog,U-turn|Impish|252,,168,,88,|||S||128,,,G,5",
+            "Clefable||lifeorb|magicguard|Moonblast,Fire Blast,Soft-Boiled,Calm Mind|Modest|252,,,252,4,|F|,0,,,,|||",
+            "Mew||lightclay|synchronize|Reflect,Light Screen,Taunt,Will-O-Wisp|Timid|252,,4,,,252||,0,,,,|||"
+    )
+
+    private fun roundTrip(packed: String) = codec.pack(codec.unpack(packed)!!)
+
+    @Test
+    fun `test_Round trip every field`() {
+        sets.forEach { set ->
+            assert(roundTrip(set) == set) { "Wrong round trip: ${roundTrip(set)} for $set" }
+        }
+        val team = sets.joinToString("]")
+        assert(roundTrip(team) == team) { "Wrong team round trip" }
+    }
+
+    @Test
+    fun `test_Unpack misc fields`() {
+        val magnezone = codec.unpack(sets[3])!!.single()
+        assert(magnezone.name == "Sparky") { "Wrong name: ${magnezone.name}" }
+        assert(magnezone.species == "Magnezone") { "Wrong species: ${magnezone.species}" }
+        assert(magnezone.shiny) { "Wrong shiny" }
+        assert(magnezone.level == 88) { "Wrong level: ${magnezone.level}" }
+        assert(magnezone.happiness == 255) { "Wrong happiness: ${magnezone.happiness}" }
+        assert(magnezone.hpType == "Fire") { "Wrong hidden power type: ${magnezone.hpType}" }
+        assert(magnezone.ivs.atk == 0 && magnezone.ivs.spa == 30 && magnezone.ivs.hp == 31) { "Wrong ivs" }
+        assert(magnezone.evs.spa == 252 && magnezone.evs.hp == 0) { "Wrong evs" }
+
+        val dragapult = codec.unpack(sets[4])!!.single()
+        assert(dragapult.hpType.isEmpty()) { "Wrong hidden power type: ${dragapult.hpType}" }
+        assert(dragapult.pokeball == "dreamball") { "Wrong pokeball: ${dragapult.pokeball}" }
+
+        val corviknight = codec.unpack(sets[5])!!.single()
+        assert(corviknight.happiness == 128) { "Wrong happiness: ${corviknight.happiness}" }
+        assert(corviknight.gigantamax) { "Wrong gigantamax" }
+        assert(corviknight.dynamaxLevel == 5) { "Wrong dynamax level: ${corviknight.dynamaxLevel}" }
+    }
+
+    @Test
+    fun `test_Pack pokeball without hidden power type`() {
+        val pokemon = TeamPokemon("Pikachu").apply { pokeball = "Dream Ball" }
+        val packed = codec.pack(listOf(pokemon))
+        assert(packed == "Pikachu|||||||||||,,dreamball,,") { "Wrong packed: $packed" }
+    }
+
+    @Test
+    fun `test_Reject malformed data`() {
+        assert(codec.unpack("Pikachu|||lightningrod") == null) { "Truncated set should be rejected" }
+        assert(codec.unpack(sets[0] + "]Pikachu||") == null) { "Truncated team should be rejected" }
+    }
+
+    @Test
+    fun `test_Read species without unpacking`() {
+        val team = Team.packed("Test", "gen8ou", sets.joinToString("]"))
+        val speciesIds = team.speciesIds
+        assert(speciesIds.size == sets.size) { "Wrong species count: $speciesIds" }
+        assert(speciesIds[0] == "landorustherian") { "Wrong species: ${speciesIds[0]}" }
+        assert(speciesIds[3] == "magnezone") { "Wrong species: ${speciesIds[3]}" }
+        assert(team.pack() == sets.joinToString("]")) { "Packed team should be kept as is" }
+    }
+
+    @Test
+    fun `test_Round trip sample teams`() {
+        val teams = readSampleTeams()
+        assert(teams.size >= 20) { "Sample teams are missing: ${teams.size}" }
+        teams.forEach { team ->
+            assert(roundTrip(team.pack()) == team.pack()) { "Wrong round trip for ${team.label}" }
+        }
+    }
+}
+
+// Teams as stored by Showdown's teambuilder, one "format]label|packed team" per line
+fun readSampleTeams(): List<Team> {
+    val input = PackedTeamCodecTest::class.java.getResourceAsStream("/sample_teams.txt")
+            ?: throw IllegalStateException("Missing sample_teams.txt test resource")
+    return input.bufferedReader().useLines { lines ->
+        lines.filter { it.isNotBlank() }.map { line ->
+            val formatEnd = line.indexOf(']')
+            val labelEnd = line.indexOf('|', formatEnd)
+            Team.packed(line.substring(formatEnd + 1, labelEnd), line.substring(0, formatEnd), line.substring(labelEnd + 1))
+        }.toList()
+    }
+}
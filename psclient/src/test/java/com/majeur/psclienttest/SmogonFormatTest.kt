@@ -33,6 +33,14 @@ class SmogonFormatTest {
     val taunt = Move.Details().apply { name = "Taunt" }
     val roost = Move.Details().apply { name = "Roost" }
 
+    // Lookups made by parseTeams() for the crobat sets below
+    private fun stubBatchedAssets() = runBlocking {
+        Mockito.`when`(assetLoader.dexPokemons(setOf("crobat"))).thenReturn(mapOf("crobat" to crobat))
+        Mockito.`when`(assetLoader.items(setOf("flyiniumz"))).thenReturn(mapOf("flyiniumz" to flyiniumz))
+        Mockito.`when`(assetLoader.moves(setOf("bravebird", "superfang", "taunt", "roost"))).thenReturn(mapOf(
+                "bravebird" to bravebird, "superfang" to superfang, "taunt" to taunt, "roost" to roost))
+    }
+
     @Test
     fun `test_Parse a single pokemon`(): Unit = runBlocking(Dispatchers.Unconfined) {
         Mockito.`when`(assetLoader.dexPokemon("crobat")).thenReturn(crobat)
@@ -73,7 +81,7 @@ class SmogonFormatTest {
 
     @Test
     fun `test_Parse multiple pokemons as a single team`(): Unit = runBlocking(Dispatchers.Unconfined) {
-        Mockito.`when`(assetLoader.dexPokemon("crobat")).thenReturn(crobat)
+        stubBatchedAssets()
 
         val text = """
             The bat (Crobat) (F) @ Flyinium Z  
@@ -180,7 +188,7 @@ class SmogonFormatTest {
 
     @Test
     fun `test_Parse multiple teams`(): Unit = runBlocking(Dispatchers.Unconfined) {
-        Mockito.`when`(assetLoader.dexPokemon("crobat")).thenReturn(crobat)
+        stubBatchedAssets()
 
         val text = """
             === [gen7uu] test team 1 ===
@@ -297,6 +305,27 @@ class SmogonFormatTest {
         Unit
     }
 
+    @Test
+    fun `test_Drop unknown items and moves on import`(): Unit = runBlocking(Dispatchers.Unconfined) {
+        Mockito.`when`(assetLoader.dexPokemons(emptySet())).thenReturn(emptyMap())
+        Mockito.`when`(assetLoader.items(setOf("flyiniumzz"))).thenReturn(mapOf("flyiniumzz" to null))
+        Mockito.`when`(assetLoader.moves(setOf("bravebird", "superfangg"))).thenReturn(mapOf(
+                "bravebird" to bravebird, "superfangg" to null))
+
+        val text = """
+            === [gen7uu] typos ===
+
+            Crobat @ Flyinium ZZ
+            - Brave Bird
+            - Super Fangg
+        """.trimIndent()
+
+        val pokemon = SmogonTeamParser.parseTeams(text, assetLoader).single().pokemons.single()
+        assert(pokemon.item.isEmpty()) { "Unknown item should be dropped: ${pokemon.item}" }
+        assert(pokemon.moves == listOf("bravebird")) { "Unknown moves should be dropped: ${pokemon.moves}" }
+        Unit
+    }
+
     @Test
     fun `test_Build a single pokemon`(): Unit = runBlocking(Dispatchers.Unconfined) {
         Mockito.`when`(assetLoader.dexPokemon("crobat")).thenReturn(crobat)
@@ -0,0 +1,101 @@
+package com.majeur.psclienttest
+
+import com.majeur.psclient.io.SpritePack
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.mockito.junit.MockitoJUnitRunner
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.IOException
+
+@RunWith(MockitoJUnitRunner::class)
+class SpritePackTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val sprites = linkedMapOf(
+            "D2:pikachu:0:0" to byteArrayOf(1, 2, 3),
+            "D2:pikachu:1:0" to byteArrayOf(4, 5),
+            "DEX:charizard-megax:0:0" to ByteArray(300) { it.toByte() })
+
+    // Same layout as build-tools/build_sprite_pack.py
+    private fun packBytes(sprites: Map<String, ByteArray>, magic: Int = 0x50535350, version: Int = 1): ByteArray {
+        val index = ByteArrayOutputStream()
+        DataOutputStream(index).apply { sprites.keys.forEach { writeUTF(it); writeLong(0); writeInt(0) } }
+        var offset = 12L + index.size()
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).apply {
+            writeInt(magic)
+            writeInt(version)
+            writeInt(sprites.size)
+            sprites.forEach { (key, content) ->
+                writeUTF(key)
+                writeLong(offset)
+                writeInt(content.size)
+                offset += content.size
+            }
+            sprites.values.forEach { write(it) }
+        }
+        return bytes.toByteArray()
+    }
+
+    private fun packFile(bytes: ByteArray) = folder.newFile().apply { writeBytes(bytes) }
+
+    private inline fun assertThrowsIOException(message: String, block: () -> Unit) {
+        val thrown = try {
+            block()
+            false
+        } catch (e: IOException) {
+            true
+        }
+        assert(thrown) { message }
+    }
+
+    @Test
+    fun `test_Read index and entries`() {
+        val pack = SpritePack.open(packFile(packBytes(sprites)))
+        assert(pack.size == sprites.size) { "Wrong size: ${pack.size}" }
+        sprites.forEach { (key, content) ->
+            assert(key in pack) { "Missing $key" }
+            assert(pack.read(key)?.contentEquals(content) == true) { "Wrong content for $key" }
+        }
+        assert("D2:pikachu:0:1" !in pack) { "Back sprite is not in the pack" }
+        assert(pack.read("D2:pikachu:0:1") == null) { "Missing sprites must read as null" }
+        pack.close()
+    }
+
+    @Test
+    fun `test_Reject invalid packs`() {
+        assertThrowsIOException("Wrong magic must be rejected") {
+            SpritePack.open(packFile(packBytes(sprites, magic = 0)))
+        }
+        assertThrowsIOException("Unknown version must be rejected") {
+            SpritePack.open(packFile(packBytes(sprites, version = 2)))
+        }
+        val bytes = packBytes(sprites)
+        assertThrowsIOException("Truncated sprite data must be rejected") {
+            SpritePack.open(packFile(bytes.copyOf(bytes.size - 10)))
+        }
+        assertThrowsIOException("Truncated index must be rejected") {
+            SpritePack.open(packFile(bytes.copyOf(20)))
+        }
+    }
+
+    @Test
+    fun `test_Install keeps previous pack when new one is invalid`() {
+        val filesDir = folder.newFolder()
+        SpritePack.install(filesDir, packBytes(sprites).inputStream())
+        assert(SpritePack.current?.size == sprites.size) { "Pack must be installed" }
+        assertThrowsIOException("Invalid pack must not be installed") {
+            SpritePack.install(filesDir, ByteArray(16).inputStream())
+        }
+        assert(SpritePack.current?.contains("D2:pikachu:0:0") == true) { "Previous pack must be kept" }
+        assert(File(filesDir, SpritePack.FILE_NAME).exists()) { "Previous pack file must be kept" }
+        SpritePack.uninstall(filesDir)
+        assert(SpritePack.current == null && !File(filesDir, SpritePack.FILE_NAME).exists()) { "Pack must be removed" }
+    }
+}
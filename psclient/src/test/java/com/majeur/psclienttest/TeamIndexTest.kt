@@ -0,0 +1,77 @@
+package com.majeur.psclienttest
+
+import com.majeur.psclient.model.common.PackedTeamCodec
+import com.majeur.psclient.model.common.Team
+import com.majeur.psclient.model.common.TeamIndex
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.junit.MockitoJUnitRunner
+
+@RunWith(MockitoJUnitRunner::class)
+class TeamIndexTest {
+
+    private val codec = PackedTeamCodec()
+
+    private val landorus = "Landorus-Therian||choicescarf|intimidate|Earthquake,U-turn,Stone Edge,Explosion|Jolly|,252,,,4,252|||||"
+    private val toxapex = "Toxapex||blacksludge|regenerator|Scald,Toxic Spikes,Recover,Haze|Bold|252,,252,,4,|F||||"
+    private val magnezone = "Sparky|Magnezone|choicespecs|magnetpull|Thunderbolt,Flash Cannon,Volt Switch,Hidden Power|Modest|,,,252,4,252||,0,,30,,|S|88|,Fire,,,"
+
+    private val balance = Team.packed("Balance OU", "gen8ou", "$landorus]$toxapex")
+    private val offense = Team.packed("Rain offense", "gen8ou", "$magnezone]$landorus")
+
+    private fun index(vararg teams: Team) = TeamIndex().apply { teams.forEach { add(it) } }
+
+    @Test
+    fun `test_Search terms of a packed team`() {
+        val terms = mutableListOf<String>()
+        PackedTeamCodec.forEachSearchTerm(magnezone) { terms.add(it) }
+        assert(terms == listOf("sparky", "magnezone", "choicespecs", "magnetpull", "thunderbolt", "flashcannon",
+                "voltswitch", "hiddenpower")) { "Wrong terms: $terms" }
+
+        terms.clear()
+        PackedTeamCodec.forEachSearchTerm("$toxapex]$landorus") { terms.add(it) }
+        assert("toxapex" in terms && "landorustherian" in terms && "uturn" in terms) { "Missing terms: $terms" }
+        assert(terms.none { it == "bold" || it == "jolly" || it == "252" || it == "f" }) { "Only names, items, abilities and moves: $terms" }
+    }
+
+    @Test
+    fun `test_Search matches all terms`() {
+        val index = index(balance, offense)
+        assert(index.search("landorus") == setOf(balance.uniqueId, offense.uniqueId)) { "Both teams have Landorus" }
+        assert(index.search("landorus toxapex") == setOf(balance.uniqueId)) { "Only balance has both" }
+        assert(index.search("rain  Magnezone") == setOf(offense.uniqueId)) { "Label words and species" }
+        assert(index.search("toxapex magnezone")?.isEmpty() == true) { "No team has both" }
+    }
+
+    @Test
+    fun `test_Search matches substrings`() {
+        val index = index(balance, offense)
+        assert(index.search("scarf") == setOf(balance.uniqueId, offense.uniqueId)) { "scarf must match choicescarf" }
+        assert(index.search("specs") == setOf(offense.uniqueId)) { "specs must match choicespecs" }
+        assert(index.search("U-turn") == setOf(balance.uniqueId, offense.uniqueId)) { "Query terms are ids too" }
+        assert(index.search("sparky") == setOf(offense.uniqueId)) { "Nicknames are indexed" }
+    }
+
+    @Test
+    fun `test_Reindex edited teams`() {
+        val index = index(balance, offense)
+        balance.label = "Stall"
+        balance.pokemons = codec.unpack(toxapex)!!
+        index.add(balance)
+        assert(index.size == 2) { "Edited team must be indexed once: ${index.size}" }
+        assert(index.search("balance")?.isEmpty() == true) { "Former label must not match" }
+        assert(index.search("stall toxapex") == setOf(balance.uniqueId)) { "New label must match" }
+        assert(index.search("landorus") == setOf(offense.uniqueId)) { "Removed pokemons must not match" }
+
+        index.remove(offense)
+        assert(index.size == 1) { "Removed team must not be indexed: ${index.size}" }
+        assert(index.search("scarf")?.isEmpty() == true) { "Removed team must not match" }
+    }
+
+    @Test
+    fun `test_Empty query`() {
+        val index = index(balance, offense)
+        assert(index.search("") == null) { "Empty query must not filter" }
+        assert(index.search("  - ") == null) { "Query without id characters must not filter" }
+    }
+}
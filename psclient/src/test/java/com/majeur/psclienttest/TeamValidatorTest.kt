@@ -0,0 +1,101 @@
+package com.majeur.psclienttest
+
+import com.majeur.psclient.io.AssetLoader
+import com.majeur.psclient.model.common.Stats
+import com.majeur.psclient.model.pokemon.DexPokemon
+import com.majeur.psclient.model.pokemon.TeamPokemon
+import com.majeur.psclient.util.TeamValidator
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runBlocking
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.Mockito
+import org.mockito.junit.MockitoJUnitRunner
+
+@RunWith(MockitoJUnitRunner::class)
+class TeamValidatorTest {
+
+    private val assetLoader: AssetLoader = Mockito.mock(AssetLoader::class.java)
+    private val validator = TeamValidator(assetLoader)
+
+    private val pikachu = DexPokemon().apply { species = "Pikachu"; num = 25 }
+    private val pikachuAlola = DexPokemon().apply { species = "Pikachu-Alola"; num = 25 }
+    private val giratinaOrigin = DexPokemon().apply { species = "Giratina-Origin"; num = 487; requiredItem = "Griseous Orb" }
+
+    // AssetLoader merges the learnsets of pre-evolutions, Nasty Plot and Wish are only learnt by Pichu
+    private val pikachuLearnset = listOf("fakeout", "hiddenpower", "nastyplot", "surf", "thunderbolt", "voltswitch", "wish")
+
+    private fun prepare(vararg dexPokemons: DexPokemon) = runBlocking(Dispatchers.Unconfined) {
+        val speciesIds = dexPokemons.map { it.species.toLowerCase().replace("-", "") }
+        Mockito.`when`(assetLoader.dexPokemons(speciesIds.toSet())).thenReturn(speciesIds.zip(dexPokemons).toMap())
+        speciesIds.forEach { Mockito.`when`(assetLoader.learnset(it)).thenReturn(pikachuLearnset) }
+        validator.prepare(speciesIds)
+    }
+
+    private fun pikachu(vararg moves: String) = TeamPokemon("Pikachu").apply { this.moves = moves.toList() }
+
+    @Test
+    fun `test_EV and IV bounds`() {
+        prepare(pikachu)
+        val pokemon = pikachu("Thunderbolt").apply {
+            evs = Stats(0).apply { set(0, 253); set(5, -1) }
+            ivs = Stats(31).apply { set(3, 32) }
+        }
+        val problems = validator.validate("gen8ou", listOf(pokemon)).map { it.message }
+        assert(problems.size == 3) { "Wrong problems: $problems" }
+        assert(problems.any { "HP EVs" in it } && problems.any { "Spe EVs" in it }) { "EVs out of bounds: $problems" }
+        assert(problems.any { "SpA IVs" in it }) { "IVs out of bounds: $problems" }
+    }
+
+    @Test
+    fun `test_EV sum only limited from gen 3`() {
+        prepare(pikachu)
+        val pokemon = pikachu("Thunderbolt").apply { evs = Stats(252) }
+        val problems = validator.validate("gen8ou", listOf(pokemon))
+        assert(problems.size == 1 && "1512 EVs" in problems[0].message) { "Wrong problems: $problems" }
+        assert(validator.validate("gen3ou", listOf(pokemon)).size == 1) { "EV sum is limited in gen 3" }
+        assert(validator.validate("gen2ou", listOf(pokemon)).isEmpty()) { "EV sum is not limited in gen 2" }
+        assert(validator.validate("gen1ou", listOf(pokemon)).isEmpty()) { "EV sum is not limited in gen 1" }
+        assert(validator.validate("[Gen 1] OU", listOf(pokemon)).isEmpty()) { "Format names must be understood" }
+    }
+
+    @Test
+    fun `test_Repeated moves`() {
+        prepare(pikachu)
+        val problems = validator.validate("gen8ou", listOf(pikachu("Thunderbolt", "Surf", "thunderbolt")))
+        assert(problems.size == 1 && problems[0].message == "Pikachu has thunderbolt more than once") { "Wrong problems: $problems" }
+        val hiddenPowers = validator.validate("gen7ou", listOf(pikachu("Hidden Power Ice", "Hidden Power Fire")))
+        assert(hiddenPowers.size == 1) { "Hidden Powers are the same move: $hiddenPowers" }
+    }
+
+    @Test
+    fun `test_Learnset with pre-evolution moves`() {
+        prepare(pikachu)
+        val legal = validator.validate("gen8ou", listOf(pikachu("Nasty Plot", "Wish", "Volt Switch", "Fake Out")))
+        assert(legal.isEmpty()) { "Pre-evolution moves must be allowed: $legal" }
+        val problems = validator.validate("gen8ou", listOf(pikachu("Thunderbolt", "Spore")))
+        assert(problems.size == 1 && problems[0].message == "Pikachu can't learn Spore") { "Wrong problems: $problems" }
+        assert(problems[0].slot == 0) { "Wrong slot: ${problems[0].slot}" }
+    }
+
+    @Test
+    fun `test_Required items`() {
+        prepare(giratinaOrigin)
+        val giratina = TeamPokemon("Giratina-Origin").apply { moves = listOf("Surf") }
+        val problems = validator.validate("gen8ubers", listOf(giratina))
+        assert(problems.size == 1 && problems[0].message == "Giratina-Origin must hold Griseous Orb") { "Wrong problems: $problems" }
+        giratina.item = "griseousorb"
+        assert(validator.validate("gen8ubers", listOf(giratina)).isEmpty()) { "Item ids must match item names" }
+    }
+
+    @Test
+    fun `test_Species Clause`() {
+        prepare(pikachu, pikachuAlola)
+        val team = listOf(pikachu("Surf"), TeamPokemon("Pikachu-Alola").apply { moves = listOf("Surf") })
+        val problems = validator.validate("gen7ou", team)
+        assert(problems.size == 1 && problems[0].slot == 1) { "Only the second pokemon breaks the clause: $problems" }
+        assert(problems[0].message == "Species Clause: Pikachu-Alola is already in the team") { "Wrong message: ${problems[0]}" }
+        val firstSlot = validator.validate("gen7ou", team, 0)
+        assert(firstSlot.size == 1 && firstSlot[0].slot == 0) { "Single slot checks look at the whole team: $firstSlot" }
+    }
+}
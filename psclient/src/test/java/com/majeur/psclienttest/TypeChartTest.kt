@@ -0,0 +1,44 @@
+package com.majeur.psclienttest
+
+import com.majeur.psclient.model.common.TypeChart
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.junit.MockitoJUnitRunner
+
+@RunWith(MockitoJUnitRunner::class)
+class TypeChartTest {
+
+    private fun type(name: String) = TypeChart.indexOf(name)
+
+    private fun mask(vararg names: String) = names.fold(0) { mask, name -> mask or (1 shl type(name)) }
+
+    @Test
+    fun `test_Effectiveness of dual types`() {
+        assert(TypeChart.effectiveness(type("Fire"), type("Grass"), type("Steel")) == 4f) { "Fire on Grass/Steel" }
+        assert(TypeChart.effectiveness(type("Ground"), type("Flying")) == 0f) { "Ground on Flying" }
+        assert(TypeChart.effectiveness(type("Fighting"), type("Normal"), type("Ghost")) == 0f) { "Fighting on Normal/Ghost" }
+        assert(TypeChart.effectiveness(type("Water"), type("Water"), type("Dragon")) == 0.25f) { "Water on Water/Dragon" }
+        assert(TypeChart.effectiveness(type("Ice"), type("Ice")) == 0.5f) { "Ice on Ice" }
+        assert(TypeChart.effectiveness(type("fairy"), type("dragon")) == 2f) { "Type names are case insensitive" }
+    }
+
+    @Test
+    fun `test_Defensive masks`() {
+        val water = type("Water")
+        val ground = type("Ground")
+        assert(TypeChart.weaknessMask(water, ground) == mask("Grass")) { "Water/Ground is only weak to Grass" }
+        assert(TypeChart.immunityMask(water, ground) == mask("Electric")) { "Water/Ground is immune to Electric" }
+        assert(TypeChart.resistanceMask(water, ground) == mask("Fire", "Poison", "Rock", "Steel")) { "Water/Ground resistances" }
+        assert(TypeChart.weaknessMask(type("Normal")) == mask("Fighting")) { "Single type mask" }
+    }
+
+    @Test
+    fun `test_Team sums`() {
+        val counts = IntArray(TypeChart.COUNT)
+        TypeChart.accumulate(TypeChart.weaknessMask(type("Grass")), counts)
+        TypeChart.accumulate(TypeChart.weaknessMask(type("Bug"), type("Steel")), counts)
+        assert(counts[type("Fire")] == 2) { "Both are weak to Fire" }
+        assert(counts[type("Ice")] == 1) { "Only Grass is weak to Ice" }
+        assert(TypeChart.superEffectiveMask(type("Electric")) == mask("Water", "Flying")) { "Electric coverage" }
+    }
+}